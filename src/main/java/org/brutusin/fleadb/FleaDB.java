@@ -16,9 +16,18 @@
 package org.brutusin.fleadb;
 
 import java.util.List;
+import org.brutusin.fleadb.aggregation.AggregationResponse;
+import org.brutusin.fleadb.aggregation.Aggregations;
+import org.brutusin.fleadb.bulk.BulkOptions;
+import org.brutusin.fleadb.facet.DrillSidewaysResponse;
 import org.brutusin.fleadb.facet.FacetMultiplicities;
+import org.brutusin.fleadb.facet.FacetRanges;
 import org.brutusin.fleadb.facet.FacetResponse;
+import org.brutusin.fleadb.facet.FacetSampling;
+import org.brutusin.fleadb.facet.FacetSelections;
+import org.brutusin.fleadb.pagination.ExportOptions;
 import org.brutusin.fleadb.pagination.Paginator;
+import org.brutusin.fleadb.pagination.RecordIterator;
 import org.brutusin.fleadb.query.Query;
 import org.brutusin.fleadb.sort.Sort;
 
@@ -32,24 +41,134 @@ public interface FleaDB<E> {
 
     public E getSingleResult(final Query q);
 
+    /**
+     * Returns the record with the specified key, or <code>null</code> if none.
+     * Requires the schema to declare a key field.
+     *
+     * @param key
+     * @return
+     */
+    public E getById(Object key);
+
     public Paginator<E> query(final Query q);
 
     public Paginator<E> query(final Query q, final Sort sort);
 
+    /**
+     * Returns a lazy iterator over the records matching the query, in index
+     * order, to process large result sets in constant memory. The iterator
+     * must be closed if not fully consumed.
+     *
+     * @param q
+     * @return
+     */
+    public RecordIterator<E> iterator(final Query q);
+
+    public RecordIterator<E> iterator(final Query q, final Sort sort);
+
+    /**
+     * Returns a lazy iterator over the records matching the query, in the
+     * order given by the sort, to export large result sets in bounded memory.
+     * Sort values exceeding the memory budget of the options are spilled to
+     * temporary run files, that are merged while iterating. The iterator must
+     * be closed if not fully consumed.
+     *
+     * @param q
+     * @param sort if <code>null</code> records are returned in index order
+     * @param options can be <code>null</code> for default settings
+     * @return
+     */
+    public RecordIterator<E> iterator(final Query q, final Sort sort, ExportOptions options);
+
     public void store(E entity);
 
+    /**
+     * Stores the records using the default bulk options. Records are
+     * validated and transformed in parallel, so storing order is not
+     * preserved.
+     *
+     * @param entities
+     * @return number of records stored
+     */
+    public long storeAll(Iterable<E> entities);
+
+    public long storeAll(Iterable<E> entities, BulkOptions options);
+
+    /**
+     * Stores the record replacing any previous one with the same key, in a
+     * single atomic operation. Requires the schema to declare a key field.
+     *
+     * @param entity
+     */
+    public void upsert(E entity);
+
     public void delete(Query q);
 
     public List<FacetResponse> getFacetValues(final Query q, FacetMultiplicities activeFacets);
 
+    /**
+     * Returns the facet values counted over a random sample of the matching
+     * records, for low latency on broad queries where approximate
+     * multiplicities are enough.
+     *
+     * @param q
+     * @param activeFacets
+     * @param sampling sampling settings, exhaustive counting if
+     * <code>null</code>
+     * @return responses flagged as estimates if sampling took place
+     * @see FacetResponse#isEstimate()
+     */
+    public List<FacetResponse> getFacetValues(final Query q, FacetMultiplicities activeFacets, FacetSampling sampling);
+
+    /**
+     * Returns the values of the specified facets and the multiplicities of the
+     * ranges of the specified range facets, all of them counted from the same
+     * search.
+     *
+     * @param q
+     * @param activeFacets value facets, can be <code>null</code>
+     * @param facetRanges range facets, can be <code>null</code>
+     * @param sampling sampling settings, exhaustive counting if
+     * <code>null</code>
+     * @return
+     */
+    public List<FacetResponse> getFacetValues(final Query q, FacetMultiplicities activeFacets, FacetRanges facetRanges, FacetSampling sampling);
+
     public List<FacetResponse> getFacetValues(final Query q, int maxFacetValues);
 
+    /**
+     * Drills down the query on the selected facet values, returning in a
+     * single search the requested page of matching records and the facet
+     * values of the requested facets. Values of each selected facet are
+     * counted sideways, that is, ignoring the selection on that facet.
+     *
+     * @param q base query
+     * @param selections selected facet values. Can be <code>null</code>
+     * @param facetMultiplicities facets to return and their max number of
+     * values
+     * @param sort
+     * @param pageNum
+     * @param pageSize
+     * @return
+     */
+    public DrillSidewaysResponse<E> drillSideways(Query q, FacetSelections selections, FacetMultiplicities facetMultiplicities, Sort sort, int pageNum, int pageSize);
+
     public List<FacetResponse> getFacetValuesStartingWith(String facetName, String prefix, Query q, int max);
 
     public int getNumFacetValues(Query q, String facetName);
 
     public double getFacetValueMultiplicity(String facetName, String facetValue, Query q);
 
+    /**
+     * Computes the requested aggregations over the records matching the query,
+     * in a single pass reading the DocValues of the aggregated fields.
+     *
+     * @param q
+     * @param aggregations
+     * @return
+     */
+    public AggregationResponse aggregate(Query q, Aggregations aggregations);
+
     public Schema getSchema();
 
     public void commit();
@@ -22,6 +22,7 @@ import org.brutusin.json.ParseException;
 import org.brutusin.json.spi.JsonCodec;
 import org.brutusin.json.spi.JsonNode;
 import org.brutusin.commons.utils.Miscellaneous;
+import org.brutusin.fleadb.facet.FacetingMode;
 import org.brutusin.fleadb.impl.SchemaImpl;
 
 /**
@@ -31,6 +32,7 @@ import org.brutusin.fleadb.impl.SchemaImpl;
 public class FleaDBInfo {
 
     private Schema schema;
+    private FacetingMode facetingMode = FacetingMode.TAXONOMY;
 
     public void setSchema(Schema schema) {
         this.schema = schema;
@@ -40,10 +42,19 @@ public class FleaDBInfo {
         return schema;
     }
 
+    public FacetingMode getFacetingMode() {
+        return facetingMode;
+    }
+
+    public void setFacetingMode(FacetingMode facetingMode) {
+        this.facetingMode = facetingMode;
+    }
+
     @Override
     public final String toString() {
         StringBuilder sb = new StringBuilder("{\"jsonSchema\":");
         sb.append(getSchema().getJSONSChema());
+        sb.append(",\"facetingMode\":\"").append(getFacetingMode()).append("\"");
         sb.append("}");
         try {
             return JsonCodec.getInstance().prettyPrint(sb.toString());
@@ -58,6 +69,11 @@ public class FleaDBInfo {
         JsonNode jsonNode = JsonCodec.getInstance().parse(json);
         Schema schema = new SchemaImpl(JsonCodec.getInstance().parseSchema(jsonNode.get("jsonSchema").toString()));
         ret.setSchema(schema);
+        // Databases created before faceting modes were introduced use a taxonomy
+        JsonNode facetingModeNode = jsonNode.get("facetingMode");
+        if (facetingModeNode != null) {
+            ret.setFacetingMode(FacetingMode.valueOf(facetingModeNode.asString()));
+        }
         return ret;
     }
 
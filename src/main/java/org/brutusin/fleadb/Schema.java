@@ -15,9 +15,12 @@
  */
 package org.brutusin.fleadb;
 
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import org.brutusin.json.spi.JsonNode;
 import org.brutusin.json.spi.JsonSchema;
+import org.brutusin.fleadb.facet.FacetRange;
 
 /**
  * Flea-db database schema.
@@ -47,4 +50,30 @@ public interface Schema {
      * @return
      */
     public Map<String, Boolean> getFacetFields();
+
+    /**
+     * Returns the numeric facet names (integer and number properties declared
+     * as facets), counted by ranges, and their default ranges declared in the
+     * JSON-Schema (<code>"ranges"</code> property), possibly empty
+     *
+     * @return
+     */
+    public Map<String, List<FacetRange>> getRangeFacetFields();
+
+    /**
+     * Returns the index field declared as record key (<code>"index":"id"</code>
+     * in the JSON-Schema), or <code>null</code> if none
+     *
+     * @return
+     */
+    public String getKeyField();
+
+    /**
+     * Returns the index fields whose values are also stored column-stride
+     * (<code>"docValues":true</code> in the JSON-Schema), used for sorting
+     * without uninverting the index
+     *
+     * @return
+     */
+    public Set<String> getDocValuesFields();
 }
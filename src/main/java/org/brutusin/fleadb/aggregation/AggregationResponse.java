@@ -0,0 +1,66 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.aggregation;
+
+/**
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public interface AggregationResponse {
+
+    /**
+     * Number of records matching the query.
+     *
+     * @return
+     */
+    public int getTotalHits();
+
+    /**
+     * Returns the statistics of the field, or <code>null</code> if they were
+     * not requested.
+     *
+     * @param field
+     * @return
+     */
+    public FieldStats getStats(String field);
+
+    /**
+     * Returns the histogram of the field, or <code>null</code> if it was not
+     * requested.
+     *
+     * @param field
+     * @return
+     */
+    public Histogram getHistogram(String field);
+
+    /**
+     * Returns the percentiles of the field, or <code>null</code> if they were
+     * not requested.
+     *
+     * @param field
+     * @return
+     */
+    public Percentiles getPercentiles(String field);
+
+    /**
+     * Returns the estimated number of distinct values of the field, or
+     * <code>null</code> if it was not requested.
+     *
+     * @param field
+     * @return
+     */
+    public Cardinality getCardinality(String field);
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.aggregation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.brutusin.fleadb.Schema;
+import org.brutusin.json.spi.JsonNode;
+
+/**
+ * Aggregations to be computed over the records matching a query. Aggregated
+ * fields must be index fields stored as DocValues
+ * (<code>"docValues":true</code> in the JSON-Schema), numeric ones except for
+ * cardinality.
+ * <p>
+ * Instances of this class are not thread safe.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public final class Aggregations {
+
+    private static final double[] DEFAULT_PERCENTS = {50, 95, 99};
+    public static final int DEFAULT_CARDINALITY_PRECISION = 14;
+    public static final int MIN_CARDINALITY_PRECISION = 4;
+    public static final int MAX_CARDINALITY_PRECISION = 18;
+    public static final int DEFAULT_MAX_HISTOGRAM_BUCKETS = 10000;
+
+    private final List<String> statsFields = new ArrayList<String>();
+    private final Map<String, Double> histogramIntervals = new LinkedHashMap<String, Double>();
+    private final Map<String, double[]> percents = new LinkedHashMap<String, double[]>();
+    private final Map<String, Integer> cardinalityPrecisions = new LinkedHashMap<String, Integer>();
+    private int maxHistogramBuckets = DEFAULT_MAX_HISTOGRAM_BUCKETS;
+
+    private Aggregations() {
+    }
+
+    public static Aggregations create() {
+        return new Aggregations();
+    }
+
+    /**
+     * Requests the count, sum, average, minimum and maximum of the values of
+     * the field.
+     *
+     * @param field
+     * @return
+     */
+    public Aggregations stats(String field) {
+        if (statsFields.contains(field)) {
+            throw new IllegalArgumentException("Stats already requested for field: " + field);
+        }
+        statsFields.add(field);
+        return this;
+    }
+
+    /**
+     * Requests a histogram of the values of the field, with buckets of the
+     * specified width, aligned to multiples of it.
+     *
+     * @param field
+     * @param interval
+     * @return
+     */
+    public Aggregations histogram(String field, double interval) {
+        if (histogramIntervals.containsKey(field)) {
+            throw new IllegalArgumentException("Histogram already requested for field: " + field);
+        }
+        if (!(interval > 0) || Double.isInfinite(interval)) {
+            throw new IllegalArgumentException("Histogram interval must be a positive number");
+        }
+        histogramIntervals.put(field, interval);
+        return this;
+    }
+
+    /**
+     * Maximum number of buckets of each histogram. Aggregation fails as soon
+     * as a histogram exceeds it, instead of growing unbounded due to a too
+     * narrow interval or outlier values. Defaults to
+     * {@link #DEFAULT_MAX_HISTOGRAM_BUCKETS}.
+     *
+     * @param maxHistogramBuckets
+     * @return
+     */
+    public Aggregations maxHistogramBuckets(int maxHistogramBuckets) {
+        if (maxHistogramBuckets < 1) {
+            throw new IllegalArgumentException("Max histogram buckets must be greater than 0");
+        }
+        this.maxHistogramBuckets = maxHistogramBuckets;
+        return this;
+    }
+
+    /**
+     * Requests the estimated percentiles of the values of the field. If no
+     * percents are specified, p50, p95 and p99 are computed.
+     *
+     * @param field
+     * @param percents in the [0, 100] range
+     * @return
+     */
+    public Aggregations percentiles(String field, double... percents) {
+        if (this.percents.containsKey(field)) {
+            throw new IllegalArgumentException("Percentiles already requested for field: " + field);
+        }
+        if (percents == null || percents.length == 0) {
+            percents = DEFAULT_PERCENTS;
+        }
+        for (double percent : percents) {
+            if (!(percent >= 0 && percent <= 100)) {
+                throw new IllegalArgumentException("Percents must be in the [0, 100] range. Found: " + percent);
+            }
+        }
+        this.percents.put(field, percents.clone());
+        return this;
+    }
+
+    /**
+     * Requests the estimated number of distinct values of the field, with the
+     * default precision.
+     *
+     * @param field
+     * @return
+     * @see #cardinality(String, int)
+     */
+    public Aggregations cardinality(String field) {
+        return cardinality(field, DEFAULT_CARDINALITY_PRECISION);
+    }
+
+    /**
+     * Requests the estimated number of distinct values of the field. The
+     * estimation takes <code>2^precision</code> bytes of memory per segment
+     * being aggregated, no matter the number of hits, and has a relative
+     * standard error of <code>1.04/sqrt(2^precision)</code> (0.8% for the
+     * default precision of 14).
+     *
+     * @param field
+     * @param precision
+     * @return
+     */
+    public Aggregations cardinality(String field, int precision) {
+        if (cardinalityPrecisions.containsKey(field)) {
+            throw new IllegalArgumentException("Cardinality already requested for field: " + field);
+        }
+        if (precision < MIN_CARDINALITY_PRECISION || precision > MAX_CARDINALITY_PRECISION) {
+            throw new IllegalArgumentException("Precision must be in the [" + MIN_CARDINALITY_PRECISION + ", " + MAX_CARDINALITY_PRECISION + "] range");
+        }
+        cardinalityPrecisions.put(field, precision);
+        return this;
+    }
+
+    public List<String> getStatsFields(Schema schema) {
+        for (String field : statsFields) {
+            validateNumericField(field, schema);
+        }
+        return Collections.unmodifiableList(statsFields);
+    }
+
+    public Map<String, Double> getHistogramIntervals(Schema schema) {
+        for (String field : histogramIntervals.keySet()) {
+            validateNumericField(field, schema);
+        }
+        return Collections.unmodifiableMap(histogramIntervals);
+    }
+
+    public int getMaxHistogramBuckets() {
+        return maxHistogramBuckets;
+    }
+
+    public Map<String, double[]> getPercents(Schema schema) {
+        for (String field : percents.keySet()) {
+            validateNumericField(field, schema);
+        }
+        return Collections.unmodifiableMap(percents);
+    }
+
+    public Map<String, Integer> getCardinalityPrecisions(Schema schema) {
+        for (String field : cardinalityPrecisions.keySet()) {
+            if (!schema.getIndexFields().containsKey(field)) {
+                throw new IllegalArgumentException("Invalid field: " + field + ". Supported values are: " + schema.getIndexFields().keySet());
+            }
+            if (!schema.getDocValuesFields().contains(field)) {
+                throw new IllegalArgumentException("Field " + field + " is not stored as DocValues");
+            }
+        }
+        return Collections.unmodifiableMap(cardinalityPrecisions);
+    }
+
+    static void validateNumericField(String field, Schema schema) {
+        JsonNode.Type type = schema.getIndexFields().get(field);
+        if (type == null) {
+            throw new IllegalArgumentException("Invalid field: " + field + ". Supported values are: " + schema.getIndexFields().keySet());
+        }
+        if (type != JsonNode.Type.INTEGER && type != JsonNode.Type.NUMBER) {
+            throw new IllegalArgumentException("Field " + field + " is of type " + type + ". Only " + JsonNode.Type.INTEGER + " and " + JsonNode.Type.NUMBER + " fields can be aggregated");
+        }
+        if (!schema.getDocValuesFields().contains(field)) {
+            throw new IllegalArgumentException("Field " + field + " is not stored as DocValues");
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.aggregation;
+
+/**
+ * Estimated number of distinct values of a field over the records matching a
+ * query.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public final class Cardinality {
+
+    private final String field;
+    private final long value;
+    private final double relativeStandardError;
+
+    public Cardinality(String field, long value, double relativeStandardError) {
+        this.field = field;
+        this.value = value;
+        this.relativeStandardError = relativeStandardError;
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public long getValue() {
+        return value;
+    }
+
+    /**
+     * Relative standard error of the estimate, given by the precision of the
+     * aggregation.
+     *
+     * @return
+     */
+    public double getRelativeStandardError() {
+        return relativeStandardError;
+    }
+
+    @Override
+    public String toString() {
+        return "{field=" + field + ", value=" + value + ", relativeStandardError=" + relativeStandardError + "}";
+    }
+}
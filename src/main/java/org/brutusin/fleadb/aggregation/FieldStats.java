@@ -0,0 +1,91 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.aggregation;
+
+/**
+ * Statistics of the values of a numeric field over the records matching a
+ * query. Every value of multievaluated fields is taken into account.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public final class FieldStats {
+
+    private final String field;
+    private final long count;
+    private final double sum;
+    private final double min;
+    private final double max;
+
+    public FieldStats(String field, long count, double sum, double min, double max) {
+        this.field = field;
+        this.count = count;
+        this.sum = sum;
+        this.min = min;
+        this.max = max;
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    /**
+     * Number of values aggregated. Records without value are not counted.
+     *
+     * @return
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    /**
+     * Returns the average value, or <code>NaN</code> if no values have been
+     * aggregated.
+     *
+     * @return
+     */
+    public double getAvg() {
+        return count == 0 ? Double.NaN : sum / count;
+    }
+
+    /**
+     * Returns the minimum value, or <code>NaN</code> if no values have been
+     * aggregated.
+     *
+     * @return
+     */
+    public double getMin() {
+        return min;
+    }
+
+    /**
+     * Returns the maximum value, or <code>NaN</code> if no values have been
+     * aggregated.
+     *
+     * @return
+     */
+    public double getMax() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "{field=" + field + ", count=" + count + ", sum=" + sum + ", avg=" + getAvg() + ", min=" + min + ", max=" + max + "}";
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.aggregation;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Fixed-interval histogram of the values of a numeric field over the records
+ * matching a query. Buckets are sorted by their lower bound, and empty buckets
+ * are omitted.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public final class Histogram {
+
+    private final String field;
+    private final double interval;
+    private final List<Bucket> buckets;
+
+    public Histogram(String field, double interval, List<Bucket> buckets) {
+        this.field = field;
+        this.interval = interval;
+        this.buckets = Collections.unmodifiableList(buckets);
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public double getInterval() {
+        return interval;
+    }
+
+    public List<Bucket> getBuckets() {
+        return buckets;
+    }
+
+    @Override
+    public String toString() {
+        return "{field=" + field + ", interval=" + interval + ", buckets=" + buckets + "}";
+    }
+
+    /**
+     * Bucket counting the values in <code>[from, from + interval)</code>.
+     */
+    public static final class Bucket {
+
+        private final double from;
+        private final long count;
+
+        public Bucket(double from, long count) {
+            this.from = from;
+            this.count = count;
+        }
+
+        public double getFrom() {
+            return from;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            return from + ":" + count;
+        }
+    }
+}
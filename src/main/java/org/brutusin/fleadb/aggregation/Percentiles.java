@@ -0,0 +1,84 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.aggregation;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Estimated percentiles of the values of a numeric field over the records
+ * matching a query. Estimates are within a 1% relative error of the true
+ * values.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public final class Percentiles {
+
+    private final String field;
+    private final long count;
+    private final Map<Double, Double> values;
+
+    /**
+     *
+     * @param field
+     * @param count number of values aggregated
+     * @param values estimated value by percent
+     */
+    public Percentiles(String field, long count, Map<Double, Double> values) {
+        this.field = field;
+        this.count = count;
+        this.values = Collections.unmodifiableMap(values);
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the estimated value of the requested percent, or
+     * <code>NaN</code> if no values have been aggregated.
+     *
+     * @param percent
+     * @return
+     * @throws IllegalArgumentException if the percent was not requested
+     */
+    public double getPercentile(double percent) {
+        Double ret = values.get(percent);
+        if (ret == null) {
+            throw new IllegalArgumentException("Percent not requested: " + percent + ". Available values are: " + values.keySet());
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the estimated values by percent, in the order they were
+     * requested.
+     *
+     * @return
+     */
+    public Map<Double, Double> getValues() {
+        return values;
+    }
+
+    @Override
+    public String toString() {
+        return "{field=" + field + ", count=" + count + ", values=" + values + "}";
+    }
+}
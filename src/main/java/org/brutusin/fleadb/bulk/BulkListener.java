@@ -0,0 +1,34 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.bulk;
+
+/**
+ * Receives progress notifications from bulk loads. Notifications are
+ * performed from the loading worker threads, so implementations must be
+ * thread safe.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public interface BulkListener {
+
+    /**
+     * Called each time a batch of records has been stored.
+     *
+     * @param storedRecords number of records stored so far
+     * @param recordsPerSecond average throughput so far
+     */
+    public void onProgress(long storedRecords, double recordsPerSecond);
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.bulk;
+
+/**
+ * Bulk load settings. Instances of this class are not thread safe.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public final class BulkOptions {
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int batchSize = 1000;
+    private double ramBufferMB = 256;
+    private int mergeThreads = -1;
+    private BulkListener listener;
+
+    private BulkOptions() {
+    }
+
+    public static BulkOptions create() {
+        return new BulkOptions();
+    }
+
+    /**
+     * Number of worker threads validating and transforming records. Defaults
+     * to the number of available processors.
+     *
+     * @param threads
+     * @return
+     */
+    public BulkOptions threads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Threads must be greater than 0");
+        }
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * Number of records passed at once to the underlying index writer.
+     * Defaults to 1000.
+     *
+     * @param batchSize
+     * @return
+     */
+    public BulkOptions batchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be greater than 0");
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * RAM buffer of the index writer during the load, in MB. Defaults to 256.
+     * A value &lt;= 0 leaves the current one.
+     *
+     * @param ramBufferMB
+     * @return
+     */
+    public BulkOptions ramBufferMB(double ramBufferMB) {
+        this.ramBufferMB = ramBufferMB;
+        return this;
+    }
+
+    /**
+     * Maximum number of concurrent merge threads during the load. A value
+     * &lt;= 0 (default) leaves the current one.
+     *
+     * @param mergeThreads
+     * @return
+     */
+    public BulkOptions mergeThreads(int mergeThreads) {
+        this.mergeThreads = mergeThreads;
+        return this;
+    }
+
+    public BulkOptions listener(BulkListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public double getRamBufferMB() {
+        return ramBufferMB;
+    }
+
+    public int getMergeThreads() {
+        return mergeThreads;
+    }
+
+    public BulkListener getListener() {
+        return listener;
+    }
+}
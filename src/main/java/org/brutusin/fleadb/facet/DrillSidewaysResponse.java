@@ -0,0 +1,37 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.facet;
+
+import java.util.List;
+
+/**
+ * Result of a drill-sideways search: the requested page of records matching
+ * the base query and all the facet selections, and the facet values of every
+ * requested facet. Values of a selected facet are counted as if the facet
+ * itself was not selected, so that the alternatives to the current selection
+ * are available.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ * @param <E>
+ */
+public interface DrillSidewaysResponse<E> {
+
+    public int getTotalHits();
+
+    public List<E> getElements();
+
+    public List<FacetResponse> getFacetValues();
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.facet;
+
+/**
+ * Numeric interval used as value of a range facet. Lower bound is inclusive
+ * and upper bound exclusive. A <code>null</code> bound means unbounded.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public final class FacetRange {
+
+    private final String label;
+    private final Number min;
+    private final Number max;
+
+    private FacetRange(String label, Number min, Number max) {
+        if (min != null && max != null && min.doubleValue() >= max.doubleValue()) {
+            throw new IllegalArgumentException("Range min (" + min + ") must be lower than max (" + max + ")");
+        }
+        if (label == null) {
+            label = "[" + (min == null ? "*" : min) + "," + (max == null ? "*" : max) + ")";
+        }
+        this.label = label;
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * Creates a range labeled after its bounds, like <code>[10,20)</code>.
+     *
+     * @param min inclusive lower bound, or <code>null</code>
+     * @param max exclusive upper bound, or <code>null</code>
+     * @return
+     */
+    public static FacetRange create(Number min, Number max) {
+        return new FacetRange(null, min, max);
+    }
+
+    public static FacetRange create(String label, Number min, Number max) {
+        return new FacetRange(label, min, max);
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public Number getMin() {
+        return min;
+    }
+
+    public Number getMax() {
+        return max;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof FacetRange)) {
+            return false;
+        }
+        FacetRange other = (FacetRange) obj;
+        return label.equals(other.label) && equal(min, other.min) && equal(max, other.max);
+    }
+
+    @Override
+    public int hashCode() {
+        int ret = label.hashCode();
+        ret = 31 * ret + (min == null ? 0 : min.hashCode());
+        ret = 31 * ret + (max == null ? 0 : max.hashCode());
+        return ret;
+    }
+
+    private static boolean equal(Number n1, Number n2) {
+        return n1 == null ? n2 == null : n1.equals(n2);
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
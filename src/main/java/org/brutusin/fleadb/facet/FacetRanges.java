@@ -0,0 +1,93 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.facet;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.brutusin.fleadb.Schema;
+
+/**
+ * Range facets to be counted, and their ranges. Instances of this class are
+ * not thread safe.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public final class FacetRanges {
+
+    private final Map<String, List<FacetRange>> rangeMap = new LinkedHashMap();
+    private Map<String, List<FacetRange>> unmodifableMap;
+
+    private FacetRanges() {
+    }
+
+    /**
+     * Sets the ranges of a range facet. If no range is specified, the ones
+     * declared in the schema are used.
+     *
+     * @param facetName
+     * @param ranges
+     * @return
+     */
+    public static FacetRanges set(String facetName, FacetRange... ranges) {
+        return new FacetRanges().and(facetName, ranges);
+    }
+
+    public FacetRanges and(String facetName, FacetRange... ranges) {
+        if (this.rangeMap.containsKey(facetName)) {
+            throw new IllegalArgumentException("Facet name already registered: " + facetName);
+        }
+        if (ranges == null) {
+            ranges = new FacetRange[0];
+        }
+        rangeMap.put(facetName, Collections.unmodifiableList(Arrays.asList(ranges)));
+        this.unmodifableMap = null;
+        return this;
+    }
+
+    /**
+     * Returns the ranges to count per facet, resolving the default ones from
+     * the schema.
+     *
+     * @param schema
+     * @return
+     */
+    public Map<String, List<FacetRange>> getRangeMap(Schema schema) {
+        if (unmodifableMap == null) {
+            Map<String, List<FacetRange>> map = new LinkedHashMap();
+            for (Map.Entry<String, List<FacetRange>> entry : rangeMap.entrySet()) {
+                List<FacetRange> ranges = entry.getValue();
+                if (ranges.isEmpty()) {
+                    ranges = schema.getRangeFacetFields().get(entry.getKey());
+                }
+                map.put(entry.getKey(), ranges);
+            }
+            this.unmodifableMap = Collections.unmodifiableMap(map);
+        }
+        for (Map.Entry<String, List<FacetRange>> entry : unmodifableMap.entrySet()) {
+            String facetName = entry.getKey();
+            if (!schema.getRangeFacetFields().containsKey(facetName)) {
+                throw new IllegalArgumentException("Invalid range facet name: " + facetName + ". Supported values are: " + schema.getRangeFacetFields().keySet());
+            }
+            if (entry.getValue() == null || entry.getValue().isEmpty()) {
+                throw new IllegalArgumentException("No ranges specified for range facet " + facetName + ", neither in the request nor in the schema");
+            }
+        }
+        return this.unmodifableMap;
+    }
+}
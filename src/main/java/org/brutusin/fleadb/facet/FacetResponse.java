@@ -29,4 +29,12 @@ public interface FacetResponse {
 
     public List<FacetValueResponse> getFacetValues();
 
+    /**
+     * Whether the multiplicities (and number of facet values) are estimated
+     * from a sample of the matching records.
+     *
+     * @return
+     */
+    public boolean isEstimate();
+
 }
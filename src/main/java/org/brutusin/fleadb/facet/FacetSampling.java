@@ -0,0 +1,84 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.facet;
+
+/**
+ * Sampling settings for facet counting. When the query matches more records
+ * than the sample size, only a random sample of them is counted and the
+ * returned responses are flagged as estimates. Instances of this class are
+ * not thread safe.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public final class FacetSampling {
+
+    private final int sampleSize;
+    private boolean amplify = true;
+    private long seed;
+
+    private FacetSampling(int sampleSize) {
+        if (sampleSize < 1) {
+            throw new IllegalArgumentException("Sample size must be greater than 0");
+        }
+        this.sampleSize = sampleSize;
+    }
+
+    /**
+     * Creates a sampling of (approximately) the specified number of records.
+     *
+     * @param sampleSize
+     * @return
+     */
+    public static FacetSampling sampleSize(int sampleSize) {
+        return new FacetSampling(sampleSize);
+    }
+
+    /**
+     * Whether sampled counts are scaled up to estimate the counts over all the
+     * matching records (default), or returned as counted over the sample.
+     *
+     * @param amplify
+     * @return
+     */
+    public FacetSampling amplify(boolean amplify) {
+        this.amplify = amplify;
+        return this;
+    }
+
+    /**
+     * Random seed. Fixed seeds give repeatable samples over the same index.
+     * Defaults to 0, meaning a time-based seed.
+     *
+     * @param seed
+     * @return
+     */
+    public FacetSampling seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    public boolean isAmplify() {
+        return amplify;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.facet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.brutusin.fleadb.Schema;
+
+/**
+ * Facet values selected by the user, to drill down on. Values of the same
+ * facet are OR'ed and different facets are AND'ed.
+ * <p>
+ * Instances of this class are not thread safe.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public final class FacetSelections {
+
+    private final Map<String, List<String>> selectionMap = new LinkedHashMap();
+    private Map<String, List<String>> unmodifableMap;
+
+    private FacetSelections() {
+    }
+
+    /**
+     * Returns an empty selection.
+     *
+     * @return
+     */
+    public static FacetSelections none() {
+        return new FacetSelections();
+    }
+
+    public static FacetSelections select(String facetName, String... values) {
+        return new FacetSelections().and(facetName, values);
+    }
+
+    public FacetSelections and(String facetName, String... values) {
+        validate(facetName, values);
+        List<String> list = selectionMap.get(facetName);
+        if (list == null) {
+            list = new ArrayList<String>();
+            selectionMap.put(facetName, list);
+        }
+        list.addAll(Arrays.asList(values));
+        this.unmodifableMap = null;
+        return this;
+    }
+
+    private void validate(String facetName, String... values) {
+        if (facetName == null) {
+            throw new IllegalArgumentException("Facet name is required");
+        }
+        if (values == null || values.length == 0) {
+            throw new IllegalArgumentException("At least one value has to be selected for facet " + facetName);
+        }
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) {
+                throw new IllegalArgumentException("Null value selected for facet " + facetName);
+            }
+        }
+    }
+
+    public Map<String, List<String>> getSelectionMap(Schema schema) {
+        if (unmodifableMap == null) {
+            this.unmodifableMap = Collections.unmodifiableMap(selectionMap);
+        }
+        for (String facetName : selectionMap.keySet()) {
+            if (!schema.getFacetFields().containsKey(facetName)) {
+                throw new IllegalArgumentException("Invalid facet name: " + facetName + ". Supported values are: " + schema.getFacetFields().keySet());
+            }
+        }
+        return this.unmodifableMap;
+    }
+}
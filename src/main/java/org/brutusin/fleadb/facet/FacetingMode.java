@@ -0,0 +1,38 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.facet;
+
+/**
+ * Facet indexing strategy of a database. Chosen at creation time and kept for
+ * its whole life.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public enum FacetingMode {
+
+    /**
+     * Facet ordinals are assigned by a sidecar taxonomy index, committed and
+     * reopened together with the record index. Default mode.
+     */
+    TAXONOMY,
+    /**
+     * Facet values are stored as sorted-set doc values of the record index
+     * itself, with no sidecar index. Avoids the writer contention on ordinal
+     * assignment at the cost of computing global ordinals each time the
+     * searcher is reopened. Suited for write-heavy databases.
+     */
+    SORTED_SET
+}
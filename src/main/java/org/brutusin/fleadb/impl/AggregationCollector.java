@@ -0,0 +1,199 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.search.BulkScorer;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+
+/**
+ * Feeds the hits to a set of aggregators, without loading stored fields.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+final class AggregationCollector extends Collector {
+
+    private final FieldAggregator[] aggregators;
+    private int totalHits;
+    private boolean inSegment;
+
+    AggregationCollector(List<? extends FieldAggregator> aggregators) {
+        this.aggregators = aggregators.toArray(new FieldAggregator[aggregators.size()]);
+    }
+
+    /**
+     * Aggregates the hits of the query. If an executor is provided, index
+     * segments are aggregated concurrently by empty copies of this collector,
+     * whose partial results are finally merged into this one.
+     *
+     * @param searcher
+     * @param query
+     * @param executor can be <code>null</code>
+     * @throws IOException
+     */
+    void search(IndexSearcher searcher, Query query, ExecutorService executor) throws IOException {
+        List<AtomicReaderContext> leaves = searcher.getIndexReader().leaves();
+        if (executor == null || leaves.size() < 2) {
+            searcher.search(query, this);
+            finishSegment();
+            return;
+        }
+        final Weight weight = searcher.createNormalizedWeight(query);
+        final AtomicBoolean aborted = new AtomicBoolean();
+        final CountDownLatch pending = new CountDownLatch(leaves.size());
+        List<Future<AggregationCollector>> futures = new ArrayList<Future<AggregationCollector>>(leaves.size());
+        try {
+            for (final AtomicReaderContext leaf : leaves) {
+                final AggregationCollector segmentCollector = emptyCopy();
+                futures.add(executor.submit(new Callable<AggregationCollector>() {
+                    @Override
+                    public AggregationCollector call() throws IOException {
+                        try {
+                            if (!aborted.get()) {
+                                segmentCollector.collect(weight, leaf);
+                            }
+                            return segmentCollector;
+                        } finally {
+                            pending.countDown();
+                        }
+                    }
+                }));
+            }
+            for (Future<AggregationCollector> future : futures) {
+                merge(future.get());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            // Segments not started yet are skipped, and running ones are waited for, since the searcher is released on return
+            aborted.set(true);
+            for (int i = futures.size(); i < leaves.size(); i++) {
+                pending.countDown();
+            }
+            awaitUninterruptibly(pending);
+        }
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void collect(Weight weight, AtomicReaderContext leaf) throws IOException {
+        BulkScorer scorer = weight.bulkScorer(leaf, !acceptsDocsOutOfOrder(), leaf.reader().getLiveDocs());
+        if (scorer != null) {
+            setNextReader(leaf);
+            scorer.score(this);
+            finishSegment();
+        }
+    }
+
+    private void finishSegment() throws IOException {
+        if (!inSegment) {
+            return;
+        }
+        for (int i = 0; i < aggregators.length; i++) {
+            aggregators[i].finishSegment();
+        }
+        inSegment = false;
+    }
+
+    private AggregationCollector emptyCopy() {
+        List<FieldAggregator> copies = new ArrayList<FieldAggregator>(aggregators.length);
+        for (int i = 0; i < aggregators.length; i++) {
+            copies.add(aggregators[i].emptyCopy());
+        }
+        return new AggregationCollector(copies);
+    }
+
+    private void merge(AggregationCollector other) {
+        totalHits += other.totalHits;
+        for (int i = 0; i < aggregators.length; i++) {
+            aggregators[i].merge(other.aggregators[i]);
+        }
+    }
+
+    @Override
+    public void setScorer(Scorer scorer) throws IOException {
+    }
+
+    @Override
+    public void collect(int doc) throws IOException {
+        totalHits++;
+        for (int i = 0; i < aggregators.length; i++) {
+            aggregators[i].collect(doc);
+        }
+    }
+
+    @Override
+    public void setNextReader(AtomicReaderContext context) throws IOException {
+        finishSegment();
+        inSegment = true;
+        for (int i = 0; i < aggregators.length; i++) {
+            aggregators[i].setNextReader(context.reader());
+        }
+    }
+
+    @Override
+    public boolean acceptsDocsOutOfOrder() {
+        return true;
+    }
+
+    int getTotalHits() {
+        return totalHits;
+    }
+
+    void addTo(AggregationResponseImpl response) {
+        response.setTotalHits(totalHits);
+        for (int i = 0; i < aggregators.length; i++) {
+            aggregators[i].addTo(response);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.brutusin.fleadb.aggregation.AggregationResponse;
+import org.brutusin.fleadb.aggregation.Cardinality;
+import org.brutusin.fleadb.aggregation.FieldStats;
+import org.brutusin.fleadb.aggregation.Histogram;
+import org.brutusin.fleadb.aggregation.Percentiles;
+
+/**
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public final class AggregationResponseImpl implements AggregationResponse {
+
+    private final Map<String, FieldStats> stats = new HashMap<String, FieldStats>();
+    private final Map<String, Histogram> histograms = new HashMap<String, Histogram>();
+    private final Map<String, Percentiles> percentiles = new HashMap<String, Percentiles>();
+    private final Map<String, Cardinality> cardinalities = new HashMap<String, Cardinality>();
+    private int totalHits;
+
+    @Override
+    public int getTotalHits() {
+        return totalHits;
+    }
+
+    public void setTotalHits(int totalHits) {
+        this.totalHits = totalHits;
+    }
+
+    @Override
+    public FieldStats getStats(String field) {
+        return stats.get(field);
+    }
+
+    public Map<String, FieldStats> getStats() {
+        return stats;
+    }
+
+    @Override
+    public Histogram getHistogram(String field) {
+        return histograms.get(field);
+    }
+
+    public Map<String, Histogram> getHistograms() {
+        return histograms;
+    }
+
+    @Override
+    public Percentiles getPercentiles(String field) {
+        return percentiles.get(field);
+    }
+
+    public Map<String, Percentiles> getPercentiles() {
+        return percentiles;
+    }
+
+    @Override
+    public Cardinality getCardinality(String field) {
+        return cardinalities.get(field);
+    }
+
+    public Map<String, Cardinality> getCardinalities() {
+        return cardinalities;
+    }
+}
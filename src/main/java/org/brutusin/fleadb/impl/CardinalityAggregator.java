@@ -0,0 +1,156 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.impl;
+
+import java.io.IOException;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.FixedBitSet;
+import org.brutusin.fleadb.aggregation.Cardinality;
+import org.brutusin.json.spi.JsonNode;
+
+/**
+ * Estimates the number of distinct values of a field via a
+ * {@link HyperLogLog} sketch. Numeric values are hashed as they are read from
+ * the DocValues. For string fields, the ordinals of the hits are marked per
+ * segment, and each distinct term is hashed once, when the segment is
+ * finished.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+final class CardinalityAggregator extends FieldAggregator {
+
+    private final boolean numeric;
+    private final boolean multievaluated;
+    private final HyperLogLog sketch;
+
+    private NumericDocValues values;
+    private Bits docsWithField;
+    private SortedNumericDocValues multiValues;
+    private SortedDocValues sortedValues;
+    private SortedSetDocValues sortedSetValues;
+    private FixedBitSet ords;
+
+    CardinalityAggregator(String field, JsonNode.Type type, int precision) {
+        super(field);
+        this.numeric = type == JsonNode.Type.INTEGER || type == JsonNode.Type.NUMBER;
+        this.multievaluated = SchemaImpl.isMultievaluated(field);
+        this.sketch = new HyperLogLog(precision);
+    }
+
+    private CardinalityAggregator(CardinalityAggregator other) {
+        super(other.getField());
+        this.numeric = other.numeric;
+        this.multievaluated = other.multievaluated;
+        this.sketch = new HyperLogLog(other.sketch.getPrecision());
+    }
+
+    @Override
+    void setNextReader(AtomicReader reader) throws IOException {
+        this.ords = null;
+        if (numeric) {
+            if (multievaluated) {
+                this.multiValues = reader.getSortedNumericDocValues(getField());
+            } else {
+                this.values = reader.getNumericDocValues(getField());
+                this.docsWithField = reader.getDocsWithField(getField());
+            }
+        } else if (multievaluated) {
+            this.sortedSetValues = reader.getSortedSetDocValues(getField());
+            if (sortedSetValues != null) {
+                this.ords = new FixedBitSet((int) sortedSetValues.getValueCount());
+            }
+        } else {
+            this.sortedValues = reader.getSortedDocValues(getField());
+            if (sortedValues != null) {
+                this.ords = new FixedBitSet(sortedValues.getValueCount());
+            }
+        }
+    }
+
+    @Override
+    void collect(int doc) {
+        if (numeric) {
+            // Raw encoded bits identify the value as well as the decoded one
+            if (multievaluated) {
+                if (multiValues != null) {
+                    multiValues.setDocument(doc);
+                    for (int i = 0; i < multiValues.count(); i++) {
+                        sketch.addLong(multiValues.valueAt(i));
+                    }
+                }
+            } else if (values != null && docsWithField != null && docsWithField.get(doc)) {
+                sketch.addLong(values.get(doc));
+            }
+        } else if (ords != null) {
+            if (multievaluated) {
+                sortedSetValues.setDocument(doc);
+                long ord;
+                while ((ord = sortedSetValues.nextOrd()) != SortedSetDocValues.NO_MORE_ORDS) {
+                    ords.set((int) ord);
+                }
+            } else {
+                int ord = sortedValues.getOrd(doc);
+                if (ord >= 0) {
+                    ords.set(ord);
+                }
+            }
+        }
+    }
+
+    @Override
+    void finishSegment() {
+        if (ords == null) {
+            return;
+        }
+        int ord = nextOrd(-1);
+        while (ord >= 0) {
+            if (multievaluated) {
+                sketch.addBytes(sortedSetValues.lookupOrd(ord));
+            } else {
+                sketch.addBytes(sortedValues.lookupOrd(ord));
+            }
+            ord = nextOrd(ord);
+        }
+        this.ords = null;
+    }
+
+    private int nextOrd(int ord) {
+        if (ord + 1 >= ords.length()) {
+            return -1;
+        }
+        return ords.nextSetBit(ord + 1);
+    }
+
+    @Override
+    FieldAggregator emptyCopy() {
+        return new CardinalityAggregator(this);
+    }
+
+    @Override
+    void merge(FieldAggregator other) {
+        sketch.merge(((CardinalityAggregator) other).sketch);
+    }
+
+    @Override
+    void addTo(AggregationResponseImpl response) {
+        response.getCardinalities().put(getField(), new Cardinality(getField(), sketch.getEstimate(), sketch.getRelativeStandardError()));
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.impl;
+
+import java.util.List;
+import org.brutusin.fleadb.facet.DrillSidewaysResponse;
+import org.brutusin.fleadb.facet.FacetResponse;
+
+/**
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public final class DrillSidewaysResponseImpl<E> implements DrillSidewaysResponse<E> {
+
+    private final int totalHits;
+    private final List<E> elements;
+    private final List<FacetResponse> facetValues;
+
+    public DrillSidewaysResponseImpl(int totalHits, List<E> elements, List<FacetResponse> facetValues) {
+        this.totalHits = totalHits;
+        this.elements = elements;
+        this.facetValues = facetValues;
+    }
+
+    @Override
+    public int getTotalHits() {
+        return totalHits;
+    }
+
+    @Override
+    public List<E> getElements() {
+        return elements;
+    }
+
+    @Override
+    public List<FacetResponse> getFacetValues() {
+        return facetValues;
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.impl;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compiled field path (like <code>$.a.b[#]</code> or <code>$.map[*].c</code>)
+ * evaluated straight over the properties of a POJO, instead of over its JSON
+ * representation. Property accessors are resolved once per class and shared
+ * JVM-wide.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+final class EntityPath {
+
+    private static final Accessor MISSING = new Accessor() {
+        @Override
+        Object get(Object bean) {
+            throw new AssertionError();
+        }
+    };
+
+    private static final ConcurrentHashMap<Class<?>, ConcurrentHashMap<String, Accessor>> ACCESSORS = new ConcurrentHashMap<Class<?>, ConcurrentHashMap<String, Accessor>>();
+
+    // Property names, or null for array ([#]) and map ([*]) steps
+    private final String[] properties;
+    private final boolean[] mapSteps;
+
+    private EntityPath(String[] properties, boolean[] mapSteps) {
+        this.properties = properties;
+        this.mapSteps = mapSteps;
+    }
+
+    /**
+     * Compiles the path, or returns <code>null</code> if it is not made of
+     * property, array and map steps only.
+     *
+     * @param path
+     * @return
+     */
+    static EntityPath compile(String path) {
+        if (!path.startsWith("$")) {
+            return null;
+        }
+        List<String> properties = new ArrayList<String>();
+        List<Boolean> mapSteps = new ArrayList<Boolean>();
+        int i = 1;
+        while (i < path.length()) {
+            if (path.startsWith("[#]", i) || path.startsWith("[*]", i)) {
+                properties.add(null);
+                mapSteps.add(path.charAt(i + 1) == '*');
+                i += 3;
+            } else if (path.charAt(i) == '.') {
+                int end = i + 1;
+                while (end < path.length() && path.charAt(end) != '.' && path.charAt(end) != '[') {
+                    end++;
+                }
+                if (end == i + 1) {
+                    return null;
+                }
+                properties.add(path.substring(i + 1, end));
+                mapSteps.add(false);
+                i = end;
+            } else {
+                return null;
+            }
+        }
+        boolean[] maps = new boolean[mapSteps.size()];
+        for (int j = 0; j < maps.length; j++) {
+            maps[j] = mapSteps.get(j);
+        }
+        return new EntityPath(properties.toArray(new String[properties.size()]), maps);
+    }
+
+    int getSteps() {
+        return properties.length;
+    }
+
+    /**
+     * Returns the property name of the step, or <code>null</code> for array
+     * and map steps.
+     */
+    String getProperty(int step) {
+        return properties[step];
+    }
+
+    boolean isMapStep(int step) {
+        return mapSteps[step];
+    }
+
+    /**
+     * Adds the non-null values found at the path to the list.
+     *
+     * @param entity
+     * @param values
+     * @return <code>false</code> if some step can not be evaluated over the
+     * entity, so the JSON path must be used instead
+     */
+    boolean collect(Object entity, List<Object> values) {
+        return collect(entity, 0, values);
+    }
+
+    private boolean collect(Object value, int step, List<Object> values) {
+        if (value == null) {
+            return true;
+        }
+        if (step == properties.length) {
+            values.add(value);
+            return true;
+        }
+        String property = properties[step];
+        if (property != null) {
+            if (value instanceof Map) {
+                return collect(((Map) value).get(property), step + 1, values);
+            }
+            Accessor accessor = getAccessor(value.getClass(), property);
+            if (accessor == null) {
+                return false;
+            }
+            return collect(accessor.get(value), step + 1, values);
+        }
+        if (mapSteps[step]) {
+            if (!(value instanceof Map)) {
+                return false;
+            }
+            for (Object element : ((Map) value).values()) {
+                if (!collect(element, step + 1, values)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (value instanceof Collection) {
+            for (Object element : (Collection) value) {
+                if (!collect(element, step + 1, values)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            for (int i = 0; i < length; i++) {
+                if (!collect(Array.get(value, i), step + 1, values)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static Accessor getAccessor(Class<?> clazz, String property) {
+        ConcurrentHashMap<String, Accessor> classAccessors = ACCESSORS.get(clazz);
+        if (classAccessors == null) {
+            classAccessors = new ConcurrentHashMap<String, Accessor>();
+            ConcurrentHashMap<String, Accessor> previous = ACCESSORS.putIfAbsent(clazz, classAccessors);
+            if (previous != null) {
+                classAccessors = previous;
+            }
+        }
+        Accessor ret = classAccessors.get(property);
+        if (ret == null) {
+            ret = createAccessor(clazz, property);
+            classAccessors.put(property, ret);
+        }
+        return ret == MISSING ? null : ret;
+    }
+
+    /**
+     * Public getter (as the JSON codec serializes beans) or, if none, the
+     * field named as the property.
+     */
+    private static Accessor createAccessor(Class<?> clazz, String property) {
+        String capitalized = Character.toUpperCase(property.charAt(0)) + property.substring(1);
+        String[] getterNames = {"get" + capitalized, "is" + capitalized};
+        for (String getterName : getterNames) {
+            try {
+                final Method getter = clazz.getMethod(getterName);
+                if (!Modifier.isStatic(getter.getModifiers()) && getter.getReturnType() != void.class) {
+                    getter.setAccessible(true);
+                    return new Accessor() {
+                        @Override
+                        Object get(Object bean) {
+                            try {
+                                return getter.invoke(bean);
+                            } catch (Exception ex) {
+                                throw new RuntimeException(ex);
+                            }
+                        }
+                    };
+                }
+            } catch (NoSuchMethodException ex) {
+                // try next
+            }
+        }
+        for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
+            try {
+                final Field field = c.getDeclaredField(property);
+                if (!Modifier.isStatic(field.getModifiers())) {
+                    field.setAccessible(true);
+                    return new Accessor() {
+                        @Override
+                        Object get(Object bean) {
+                            try {
+                                return field.get(bean);
+                            } catch (IllegalAccessException ex) {
+                                throw new RuntimeException(ex);
+                            }
+                        }
+                    };
+                }
+            } catch (NoSuchFieldException ex) {
+                // try superclass
+            }
+        }
+        return MISSING;
+    }
+
+    private abstract static class Accessor {
+
+        abstract Object get(Object bean);
+    }
+}
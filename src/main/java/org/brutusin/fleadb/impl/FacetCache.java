@@ -0,0 +1,198 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.impl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.lucene.search.Query;
+import org.brutusin.fleadb.facet.FacetCacheStats;
+import org.brutusin.fleadb.facet.FacetRange;
+import org.brutusin.fleadb.facet.FacetResponse;
+import org.brutusin.fleadb.facet.FacetValueResponse;
+
+/**
+ * Bounded LRU cache of facet responses, valid for a single reader version.
+ * Entries are dropped as soon as a request is served by a searcher of a newer
+ * version (after a commit or a near-real-time refresh). Requests served by an
+ * older searcher, still in use after a newer one has been published, bypass
+ * the cache. Cached responses are copied in and out, since responses are
+ * mutable.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+final class FacetCache {
+
+    // Rough per-object overheads, in bytes
+    private static final int ENTRY_OVERHEAD = 128;
+    private static final int RESPONSE_OVERHEAD = 64;
+    private static final int VALUE_OVERHEAD = 56;
+
+    private final LinkedHashMap<Key, Entry> map;
+    private int capacity;
+    private long readerVersion = -1;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long estimatedBytes;
+
+    FacetCache(int capacity) {
+        this.capacity = capacity;
+        this.map = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+    }
+
+    synchronized void setCapacity(int capacity) {
+        this.capacity = capacity;
+        evict();
+    }
+
+    synchronized int getCapacity() {
+        return capacity;
+    }
+
+    synchronized List<FacetResponse> get(long readerVersion, Key key) {
+        if (capacity <= 0 || !validate(readerVersion)) {
+            return null;
+        }
+        Entry entry = map.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return copy(entry.responses);
+    }
+
+    synchronized void put(long readerVersion, Key key, List<FacetResponse> responses) {
+        if (capacity <= 0 || !validate(readerVersion)) {
+            return;
+        }
+        Entry entry = new Entry(copy(responses));
+        Entry previous = map.put(key, entry);
+        if (previous != null) {
+            estimatedBytes -= previous.bytes;
+        }
+        estimatedBytes += entry.bytes;
+        evict();
+    }
+
+    synchronized void clear() {
+        map.clear();
+        estimatedBytes = 0;
+    }
+
+    synchronized FacetCacheStats getStats() {
+        return new FacetCacheStats(hits, misses, evictions, map.size(), estimatedBytes);
+    }
+
+    /**
+     * Returns <code>false</code> if the cache must be bypassed, since the
+     * specified reader version is older than the current one.
+     */
+    private boolean validate(long readerVersion) {
+        if (readerVersion < this.readerVersion) {
+            return false;
+        }
+        if (readerVersion > this.readerVersion) {
+            clear();
+            this.readerVersion = readerVersion;
+        }
+        return true;
+    }
+
+    private void evict() {
+        Iterator<Entry> it = map.values().iterator();
+        while (map.size() > Math.max(capacity, 0) && it.hasNext()) {
+            estimatedBytes -= it.next().bytes;
+            it.remove();
+            evictions++;
+        }
+    }
+
+    private static List<FacetResponse> copy(List<FacetResponse> responses) {
+        List<FacetResponse> ret = new ArrayList<FacetResponse>(responses.size());
+        for (FacetResponse response : responses) {
+            FacetResponseImpl fr = new FacetResponseImpl(response.getFacetName());
+            fr.setNumFacetValues(response.getNumFacetValues());
+            fr.setEstimate(response.isEstimate());
+            for (FacetValueResponse fv : response.getFacetValues()) {
+                fr.getFacetValues().add(new FacetValueResponseImpl(fv.getValue(), fv.getMultiplicity()));
+            }
+            ret.add(fr);
+        }
+        return ret;
+    }
+
+    private static final class Entry {
+
+        private final List<FacetResponse> responses;
+        private final long bytes;
+
+        public Entry(List<FacetResponse> responses) {
+            this.responses = responses;
+            long size = ENTRY_OVERHEAD;
+            for (FacetResponse response : responses) {
+                size += RESPONSE_OVERHEAD + 2 * response.getFacetName().length();
+                for (FacetValueResponse fv : response.getFacetValues()) {
+                    size += VALUE_OVERHEAD + 2 * fv.getValue().length();
+                }
+            }
+            this.bytes = size;
+        }
+    }
+
+    /**
+     * Canonical form of a facet request: the Lucene query and the requested
+     * facets and ranges.
+     */
+    static final class Key {
+
+        private final Query query;
+        private final Map<String, Integer> facetMap;
+        private final Map<String, List<FacetRange>> rangeMap;
+        private final int hashCode;
+
+        Key(Query query, Map<String, Integer> facetMap, Map<String, List<FacetRange>> rangeMap) {
+            this.query = query;
+            this.facetMap = facetMap;
+            this.rangeMap = rangeMap;
+            int h = query.hashCode();
+            h = 31 * h + (facetMap == null ? 0 : facetMap.hashCode());
+            h = 31 * h + (rangeMap == null ? 0 : rangeMap.hashCode());
+            this.hashCode = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hashCode == other.hashCode && query.equals(other.query) && equal(facetMap, other.facetMap) && equal(rangeMap, other.rangeMap);
+        }
+
+        private static boolean equal(Object o1, Object o2) {
+            return o1 == null ? o2 == null : o1.equals(o2);
+        }
+    }
+}
@@ -27,6 +27,7 @@ public final class FacetResponseImpl implements FacetResponse {
 
     private String facetName;
     private int numFacetValues;
+    private boolean estimate;
     private List<FacetValueResponse> facetValues;
 
     public FacetResponseImpl() {
@@ -53,6 +54,15 @@ public final class FacetResponseImpl implements FacetResponse {
         return facetValues;
     }
 
+    @Override
+    public boolean isEstimate() {
+        return estimate;
+    }
+
+    public void setEstimate(boolean estimate) {
+        this.estimate = estimate;
+    }
+
     public void setNumFacetValues(int numFacetValues) {
         this.numFacetValues = numFacetValues;
     }
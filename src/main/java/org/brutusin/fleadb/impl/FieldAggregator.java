@@ -0,0 +1,68 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.impl;
+
+import java.io.IOException;
+import org.apache.lucene.index.AtomicReader;
+
+/**
+ * Base class of the aggregators fed by {@link AggregationCollector}. Segments
+ * can be aggregated separately (by empty copies of the aggregator) and their
+ * partial results merged afterwards.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+abstract class FieldAggregator {
+
+    private final String field;
+
+    FieldAggregator(String field) {
+        this.field = field;
+    }
+
+    final String getField() {
+        return field;
+    }
+
+    abstract void setNextReader(AtomicReader reader) throws IOException;
+
+    abstract void collect(int doc) throws IOException;
+
+    /**
+     * Called once all the hits of the current segment have been collected.
+     *
+     * @throws IOException
+     */
+    void finishSegment() throws IOException {
+    }
+
+    /**
+     * Returns a new aggregator with the same settings and no values.
+     *
+     * @return
+     */
+    abstract FieldAggregator emptyCopy();
+
+    /**
+     * Adds the values aggregated by other aggregator obtained via
+     * {@link #emptyCopy()}.
+     *
+     * @param other
+     */
+    abstract void merge(FieldAggregator other);
+
+    abstract void addTo(AggregationResponseImpl response);
+}
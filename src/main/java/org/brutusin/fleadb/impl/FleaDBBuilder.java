@@ -0,0 +1,253 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.lucene.facet.FacetsConfig;
+import org.apache.lucene.facet.taxonomy.TaxonomyMergeUtils;
+import org.apache.lucene.facet.taxonomy.directory.DirectoryTaxonomyWriter;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.brutusin.fleadb.DocTransformer;
+import org.brutusin.fleadb.FleaDBInfo;
+import org.brutusin.fleadb.Schema;
+import org.brutusin.json.ParseException;
+import org.brutusin.json.spi.JsonCodec;
+import org.brutusin.json.spi.JsonNode;
+import org.brutusin.json.spi.JsonSchema;
+
+/**
+ * Offline parallel builder of persistent databases.
+ * <p>
+ * Input records are split across a number of threads, each one storing them
+ * into its own temporary sub-database. Sub-databases are finally merged into
+ * the target database via <code>IndexWriter.addIndexes</code>, mapping their
+ * taxonomy ordinals into a single consistent taxonomy index. The
+ * <code>flea.json</code> descriptor is written last, so a partially built
+ * database can never be opened.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public final class FleaDBBuilder {
+
+    private static final String TEMP_SUBFOLDER_PREFIX = "build-";
+    private static final int BATCH_SIZE = 1000;
+
+    private FleaDBBuilder() {
+    }
+
+    /**
+     * Builds a new generic database.
+     *
+     * @param indexFolder non-existing folder where the database is built
+     * @param jsonSchema
+     * @param records
+     * @param threads
+     * @throws IOException
+     */
+    public static void build(File indexFolder, JsonSchema jsonSchema, Iterable<JsonNode> records, int threads) throws IOException {
+        build(indexFolder, jsonSchema, records, threads, new TransformerFactory<JsonNode>() {
+            @Override
+            public DocTransformer<JsonNode> create(GenericFleaDB db) {
+                return db.getTransformer();
+            }
+        });
+    }
+
+    /**
+     * Builds a new strong-typed database.
+     *
+     * @param <E>
+     * @param indexFolder non-existing folder where the database is built
+     * @param clazz
+     * @param records
+     * @param threads
+     * @throws IOException
+     */
+    public static <E> void build(File indexFolder, final Class<E> clazz, Iterable<E> records, int threads) throws IOException {
+        build(indexFolder, JsonCodec.getInstance().getSchema(clazz), records, threads, new TransformerFactory<E>() {
+            @Override
+            public DocTransformer<E> create(GenericFleaDB db) {
+                return new ObjectTransformer<E>(db.getTransformer(), clazz);
+            }
+        });
+    }
+
+    private static <T> void build(File indexFolder, JsonSchema jsonSchema, Iterable<T> records, int threads, TransformerFactory<T> transformerFactory) throws IOException {
+        if (indexFolder == null) {
+            throw new IllegalArgumentException("Index folder is required");
+        }
+        if (indexFolder.exists()) {
+            throw new IllegalArgumentException("Index folder already exists '" + indexFolder.getAbsolutePath() + "'");
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("Threads must be greater than 0");
+        }
+        Schema schema;
+        try {
+            schema = new SchemaImpl(jsonSchema);
+        } catch (ParseException ex) {
+            throw new IllegalArgumentException(ex);
+        }
+        if (!indexFolder.mkdirs()) {
+            throw new IOException("Unable to create index folder '" + indexFolder.getAbsolutePath() + "'");
+        }
+        File[] subFolders = new File[threads];
+        for (int i = 0; i < threads; i++) {
+            subFolders[i] = new File(indexFolder, TEMP_SUBFOLDER_PREFIX + i);
+        }
+        boolean built = false;
+        try {
+            buildSubDatabases(subFolders, jsonSchema, records, transformerFactory);
+            mergeSubDatabases(indexFolder, subFolders, GenericFleaDB.createFacetsConfig(schema));
+            FleaDBInfo info = new FleaDBInfo();
+            info.setSchema(schema);
+            FleaDBInfo.writeToFile(info, new File(indexFolder, GenericFleaDB.DESCRIPTOR_FILE_NAME));
+            built = true;
+        } finally {
+            if (built) {
+                for (int i = 0; i < subFolders.length; i++) {
+                    delete(subFolders[i]);
+                }
+            } else {
+                // Partial indexes would prevent a retry
+                delete(indexFolder);
+            }
+        }
+    }
+
+    private static <T> void buildSubDatabases(File[] subFolders, final JsonSchema jsonSchema, Iterable<T> records, final TransformerFactory<T> transformerFactory) throws IOException {
+        final Iterator<T> it = records.iterator();
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread[] workers = new Thread[subFolders.length];
+        for (int i = 0; i < workers.length; i++) {
+            final File subFolder = subFolders[i];
+            workers[i] = new Thread("flea-db-builder-" + i) {
+                @Override
+                public void run() {
+                    try {
+                        GenericFleaDB db = new GenericFleaDB(subFolder, jsonSchema);
+                        try {
+                            DocTransformer<T> transformer = transformerFactory.create(db);
+                            List<T> batch;
+                            while (error.get() == null && !(batch = nextBatch(it)).isEmpty()) {
+                                for (int j = 0; j < batch.size(); j++) {
+                                    db.store(transformer.entityToDocument(batch.get(j)));
+                                }
+                            }
+                            db.commit();
+                        } finally {
+                            db.close();
+                        }
+                    } catch (Throwable th) {
+                        error.compareAndSet(null, th);
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        for (int i = 0; i < workers.length; i++) {
+            try {
+                workers[i].join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                error.compareAndSet(null, ex);
+            }
+        }
+        Throwable th = error.get();
+        if (th != null) {
+            if (th instanceof IOException) {
+                throw (IOException) th;
+            } else if (th instanceof RuntimeException) {
+                throw (RuntimeException) th;
+            } else if (th instanceof Error) {
+                throw (Error) th;
+            } else {
+                throw new RuntimeException(th);
+            }
+        }
+    }
+
+    private static <T> List<T> nextBatch(Iterator<T> it) {
+        List<T> ret = new ArrayList<T>(BATCH_SIZE);
+        synchronized (it) {
+            while (it.hasNext() && ret.size() < BATCH_SIZE) {
+                T entity = it.next();
+                if (entity != null) {
+                    ret.add(entity);
+                }
+            }
+        }
+        return ret;
+    }
+
+    private static void mergeSubDatabases(File indexFolder, File[] subFolders, FacetsConfig facetsConfig) throws IOException {
+        Directory indexDir = FSDirectory.open(new File(indexFolder, GenericFleaDB.RECORD_INDEX_SUBFOLDER_NAME));
+        Directory facetDir = FSDirectory.open(new File(indexFolder, GenericFleaDB.TAXONOMY_INDEX_SUBFOLDER_NAME));
+        try {
+            IndexWriterConfig config = GenericFleaDB.createIndexWriterConfig(false);
+            config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+            IndexWriter indexWriter = new IndexWriter(indexDir, config);
+            try {
+                DirectoryTaxonomyWriter taxonomyWriter = new DirectoryTaxonomyWriter(facetDir, IndexWriterConfig.OpenMode.CREATE);
+                try {
+                    for (int i = 0; i < subFolders.length; i++) {
+                        Directory subIndexDir = FSDirectory.open(new File(subFolders[i], GenericFleaDB.RECORD_INDEX_SUBFOLDER_NAME));
+                        Directory subFacetDir = FSDirectory.open(new File(subFolders[i], GenericFleaDB.TAXONOMY_INDEX_SUBFOLDER_NAME));
+                        try {
+                            TaxonomyMergeUtils.merge(subIndexDir, subFacetDir, new DirectoryTaxonomyWriter.MemoryOrdinalMap(), indexWriter, taxonomyWriter, facetsConfig);
+                        } finally {
+                            subIndexDir.close();
+                            subFacetDir.close();
+                        }
+                    }
+                    // Taxonomy first, so that committed documents never reference missing ordinals
+                    taxonomyWriter.commit();
+                    indexWriter.commit();
+                } finally {
+                    taxonomyWriter.close();
+                }
+            } finally {
+                indexWriter.close();
+            }
+        } finally {
+            indexDir.close();
+            facetDir.close();
+        }
+    }
+
+    static void delete(File f) {
+        File[] children = f.listFiles();
+        if (children != null) {
+            for (int i = 0; i < children.length; i++) {
+                delete(children[i]);
+            }
+        }
+        f.delete();
+    }
+
+    private interface TransformerFactory<T> {
+
+        public DocTransformer<T> create(GenericFleaDB db);
+    }
+}
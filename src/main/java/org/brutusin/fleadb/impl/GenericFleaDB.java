@@ -18,24 +18,65 @@ package org.brutusin.fleadb.impl;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.lucene.codecs.PostingsFormat;
+import org.apache.lucene.codecs.bloom.BloomFilteringPostingsFormat;
+import org.apache.lucene.codecs.lucene410.Lucene410Codec;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.facet.DrillDownQuery;
+import org.apache.lucene.facet.DrillSideways;
 import org.apache.lucene.facet.FacetField;
 import org.apache.lucene.facet.FacetResult;
 import org.apache.lucene.facet.FacetsCollector;
+import org.apache.lucene.facet.Facets;
 import org.apache.lucene.facet.FacetsConfig;
 import org.apache.lucene.facet.LabelAndValue;
+import org.apache.lucene.facet.RandomSamplingFacetsCollector;
+import org.apache.lucene.facet.range.DoubleRange;
+import org.apache.lucene.facet.range.DoubleRangeFacetCounts;
+import org.apache.lucene.facet.range.LongRange;
+import org.apache.lucene.facet.range.LongRangeFacetCounts;
+import org.apache.lucene.facet.sortedset.DefaultSortedSetDocValuesReaderState;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesFacetCounts;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesFacetField;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesReaderState;
 import org.apache.lucene.facet.taxonomy.FastTaxonomyFacetCounts;
+import org.apache.lucene.facet.taxonomy.SearcherTaxonomyManager;
+import org.apache.lucene.facet.taxonomy.SearcherTaxonomyManager.SearcherAndTaxonomy;
 import org.apache.lucene.facet.taxonomy.TaxonomyReader;
-import org.apache.lucene.facet.taxonomy.TaxonomyWriter;
-import org.apache.lucene.facet.taxonomy.directory.DirectoryTaxonomyReader;
 import org.apache.lucene.facet.taxonomy.directory.DirectoryTaxonomyWriter;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.ConcurrentMergeScheduler;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LiveIndexWriterConfig;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopFieldCollector;
+import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.store.RAMDirectory;
@@ -44,14 +85,31 @@ import org.brutusin.commons.Pair;
 import org.brutusin.json.ParseException;
 import org.brutusin.json.spi.JsonNode;
 import org.brutusin.json.spi.JsonSchema;
+import org.brutusin.fleadb.DocTransformer;
+import org.brutusin.fleadb.aggregation.AggregationResponse;
+import org.brutusin.fleadb.aggregation.Aggregations;
+import org.brutusin.fleadb.bulk.BulkListener;
+import org.brutusin.fleadb.bulk.BulkOptions;
+import org.brutusin.fleadb.facet.DrillSidewaysResponse;
+import org.brutusin.fleadb.facet.FacetCacheStats;
 import org.brutusin.fleadb.facet.FacetMultiplicities;
+import org.brutusin.fleadb.facet.FacetRange;
+import org.brutusin.fleadb.facet.FacetRanges;
 import org.brutusin.fleadb.facet.FacetResponse;
+import org.brutusin.fleadb.facet.FacetSampling;
+import org.brutusin.fleadb.facet.FacetSelections;
 import org.brutusin.fleadb.facet.FacetValueResponse;
+import org.brutusin.fleadb.facet.FacetingMode;
 import org.brutusin.fleadb.FleaDB;
 import org.brutusin.fleadb.FleaDBInfo;
 import org.brutusin.fleadb.Schema;
+import org.brutusin.fleadb.pagination.ExportOptions;
 import org.brutusin.fleadb.pagination.Paginator;
 import org.brutusin.fleadb.pagination.PaginatorImpl;
+import org.brutusin.fleadb.pagination.RecordIterator;
+import org.brutusin.fleadb.pagination.RecordIteratorImpl;
+import org.brutusin.fleadb.pagination.SearcherSource;
+import org.brutusin.fleadb.pagination.SortedRecordIterator;
 import org.brutusin.fleadb.query.BooleanQuery;
 import org.brutusin.fleadb.query.Query;
 import org.brutusin.fleadb.sort.Sort;
@@ -65,26 +123,59 @@ import org.brutusin.fleadb.sort.Sort;
 public final class GenericFleaDB implements FleaDB<JsonNode> {
 
     public static final Version LUCENE_VERSION = Version.LUCENE_4_10_3;
-    private static final String DESCRIPTOR_FILE_NAME = "flea.json";
-    private static final String RECORD_INDEX_SUBFOLDER_NAME = "record-index";
-    private static final String TAXONOMY_INDEX_SUBFOLDER_NAME = "taxonomy-index";
+    static final String DESCRIPTOR_FILE_NAME = "flea.json";
+    static final String RECORD_INDEX_SUBFOLDER_NAME = "record-index";
+    static final String TAXONOMY_INDEX_SUBFOLDER_NAME = "taxonomy-index";
+    static final int DEFAULT_FACET_CACHE_SIZE = 100;
 
     private final FleaDBInfo dsInfo;
     private final JsonTransformer transformer;
     private final Directory indexDir;
-    private final Directory facetDir;
+    private final Directory facetDir; // null in SORTED_SET faceting mode
     private final File indexFolder;
+    private final FacetingMode facetingMode;
 
     private FacetsConfig facetsConfig;
+    private final FacetCache facetCache = new FacetCache(DEFAULT_FACET_CACHE_SIZE);
 
-    private boolean closed = false;
+    private volatile boolean closed = false;
+    private boolean bloomFilteredKey = false;
     private File infoFile;
 
-    // Double-Checked Locking instances
-    private volatile IndexSearcher indexSearcher;
+    // Near-real-time mode. Background refresh interval in ms (<=0 for no background refresh)
+    private boolean nearRealTime = false;
+    private long refreshMillis;
+    private ScheduledExecutorService refresher;
+
+    private ExecutorService aggregationExecutor;
+
+    // Sorted set faceting states per reader (null values for readers with no facet values). Guarded by itself, dropped on reader close
+    private final Map<IndexReader, SortedSetDocValuesReaderState> readerStates = new HashMap<IndexReader, SortedSetDocValuesReaderState>();
+    // Facet label indexes of the last taxonomy reader used for prefix lookups
+    private final ConcurrentHashMap<TaxonomyReader, ConcurrentHashMap<String, PrefixFacetCounts.LabelIndex>> labelIndexes = new ConcurrentHashMap<TaxonomyReader, ConcurrentHashMap<String, PrefixFacetCounts.LabelIndex>>();
+
+    // Double-Checked Locking instances. SearcherTaxonomyManager or SearcherManager depending on the faceting mode
+    private volatile ReferenceManager<?> searcherManager;
     private volatile IndexWriter indexWriter;
-    private volatile TaxonomyReader taxonomyReader;
-    private volatile TaxonomyWriter taxonomyWriter;
+    private volatile DirectoryTaxonomyWriter taxonomyWriter;
+
+    private final SearcherSource searcherSource = new SearcherSource() {
+        @Override
+        public IndexSearcher acquire() throws IOException {
+            SearcherAndTaxonomy pair = GenericFleaDB.this.acquire();
+            try {
+                pair.searcher.getIndexReader().incRef();
+                return pair.searcher;
+            } finally {
+                GenericFleaDB.this.release(pair);
+            }
+        }
+
+        @Override
+        public void release(IndexSearcher searcher) throws IOException {
+            searcher.getIndexReader().decRef();
+        }
+    };
 
     /**
      * Creates an in-memory instance with a Schema determined by the specified
@@ -97,6 +188,18 @@ public final class GenericFleaDB implements FleaDB<JsonNode> {
         this(null, jsonSchema);
     }
 
+    /**
+     * Creates an in-memory instance with a Schema determined by the specified
+     * JsonSchema, and the specified faceting mode.
+     *
+     * @param jsonSchema
+     * @param facetingMode
+     * @throws IOException
+     */
+    public GenericFleaDB(JsonSchema jsonSchema, FacetingMode facetingMode) throws IOException {
+        this(null, jsonSchema, facetingMode);
+    }
+
     /**
      * Opens an existing database.
      *
@@ -116,6 +219,21 @@ public final class GenericFleaDB implements FleaDB<JsonNode> {
      * @throws IOException
      */
     public GenericFleaDB(File indexFolder, JsonSchema jsonSchema) throws IOException {
+        this(indexFolder, jsonSchema, null);
+    }
+
+    /**
+     * Creates a persistent database with a Schema determined by the specified
+     * JsonSchema and the specified faceting mode, or opens an existing one
+     * verifying that both match.
+     *
+     * @param indexFolder
+     * @param jsonSchema
+     * @param facetingMode faceting mode. If <code>null</code>, the one of the
+     * existing database or {@link FacetingMode#TAXONOMY} for new ones
+     * @throws IOException
+     */
+    public GenericFleaDB(File indexFolder, JsonSchema jsonSchema, FacetingMode facetingMode) throws IOException {
         try {
             this.indexFolder = indexFolder;
             Schema schema;
@@ -131,8 +249,10 @@ public final class GenericFleaDB implements FleaDB<JsonNode> {
                 }
                 this.dsInfo = new FleaDBInfo();
                 this.dsInfo.setSchema(schema);
+                if (facetingMode != null) {
+                    this.dsInfo.setFacetingMode(facetingMode);
+                }
                 this.indexDir = new RAMDirectory();
-                this.facetDir = new RAMDirectory();
 
                 // Disk datasource
             } else {
@@ -145,25 +265,32 @@ public final class GenericFleaDB implements FleaDB<JsonNode> {
                     if (schema != null && !this.dsInfo.getSchema().getJSONSChema().equals(schema.getJSONSChema())) {
                         throw new IllegalArgumentException("Specified schema is incompatible with current datasource for index at '" + indexFolder + "'");
                     }
+                    if (facetingMode != null && facetingMode != this.dsInfo.getFacetingMode()) {
+                        throw new IllegalArgumentException("Specified faceting mode " + facetingMode + " differs from the one of the datasource at '" + indexFolder + "' (" + this.dsInfo.getFacetingMode() + ")");
+                    }
                 } else {
                     if (schema == null) {
                         throw new IllegalArgumentException("Index folder does not exist '" + indexFolder.getAbsolutePath() + "'");
                     }
                     this.dsInfo = new FleaDBInfo();
                     this.dsInfo.setSchema(schema);
+                    if (facetingMode != null) {
+                        this.dsInfo.setFacetingMode(facetingMode);
+                    }
                     writeFleaDBInfo();
                 }
                 this.indexDir = FSDirectory.open(new File(indexFolder, RECORD_INDEX_SUBFOLDER_NAME));
+            }
+            this.facetingMode = this.dsInfo.getFacetingMode();
+            if (this.facetingMode != FacetingMode.TAXONOMY) {
+                this.facetDir = null;
+            } else if (indexFolder == null) {
+                this.facetDir = new RAMDirectory();
+            } else {
                 this.facetDir = FSDirectory.open(new File(indexFolder, TAXONOMY_INDEX_SUBFOLDER_NAME));
             }
             this.transformer = new JsonTransformer(this.dsInfo.getSchema());
-            this.facetsConfig = new FacetsConfig();
-            Map<String, Boolean> facets = getSchema().getFacetFields();
-            for (Map.Entry<String, Boolean> entry : facets.entrySet()) {
-                String facet = entry.getKey();
-                Boolean multievaluated = entry.getValue();
-                facetsConfig.setMultiValued(facet, multievaluated);
-            }
+            this.facetsConfig = createFacetsConfig(getSchema());
         } catch (Throwable th) {
             close();
             if (th instanceof IOException) {
@@ -176,46 +303,249 @@ public final class GenericFleaDB implements FleaDB<JsonNode> {
         }
     }
 
+    static FacetsConfig createFacetsConfig(Schema schema) {
+        FacetsConfig ret = new FacetsConfig();
+        Map<String, Boolean> facets = schema.getFacetFields();
+        for (Map.Entry<String, Boolean> entry : facets.entrySet()) {
+            String facet = entry.getKey();
+            Boolean multievaluated = entry.getValue();
+            ret.setMultiValued(facet, multievaluated);
+        }
+        return ret;
+    }
+
+    static IndexWriterConfig createIndexWriterConfig(boolean bloomFilteredKey) {
+        IndexWriterConfig config = new IndexWriterConfig(LUCENE_VERSION, null);
+        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+        if (bloomFilteredKey) {
+            final PostingsFormat keyPostingsFormat = new BloomFilteringPostingsFormat(PostingsFormat.forName("Lucene41"));
+            config.setCodec(new Lucene410Codec() {
+                @Override
+                public PostingsFormat getPostingsFormatForField(String field) {
+                    if (JsonTransformer.KEY_FIELD_NAME.equals(field)) {
+                        return keyPostingsFormat;
+                    }
+                    return super.getPostingsFormatForField(field);
+                }
+            });
+        }
+        return config;
+    }
+
+    /**
+     * Enables or disables (default) a bloom filter over the postings of the
+     * key field in newly written segments, so that key lookups skip the
+     * segments that can not contain the key. Useful for large indexes with
+     * many segments. Must be called before any write operation.
+     *
+     * @param bloomFilteredKey
+     */
+    public synchronized void setBloomFilteredKey(boolean bloomFilteredKey) {
+        verifyNotClosed();
+        if (this.indexWriter != null) {
+            throw new IllegalStateException("Index writer has already been created");
+        }
+        this.bloomFilteredKey = bloomFilteredKey;
+    }
+
+    public boolean isBloomFilteredKey() {
+        return bloomFilteredKey;
+    }
+
+    /**
+     * Sets the maximum number of facet responses kept in the facet cache
+     * (defaults to {@value #DEFAULT_FACET_CACHE_SIZE}). Responses are cached
+     * per query and requested facets, and remain valid until a commit or a
+     * near-real-time refresh publishes a new searcher. A value &lt;= 0
+     * disables the cache.
+     *
+     * @param facetCacheSize
+     */
+    public void setFacetCacheSize(int facetCacheSize) {
+        this.facetCache.setCapacity(facetCacheSize);
+    }
+
+    public int getFacetCacheSize() {
+        return this.facetCache.getCapacity();
+    }
+
+    public FacetCacheStats getFacetCacheStats() {
+        return this.facetCache.getStats();
+    }
+
     public File getIndexFolder() {
         return indexFolder;
     }
 
-    private IndexSearcher getIndexSearcher() throws IOException {
-        if (indexSearcher == null) {
-            synchronized (this) {
-                if (indexSearcher == null) {
-                    indexSearcher = new IndexSearcher(DirectoryReader.open(indexDir));
-                }
+    public FacetingMode getFacetingMode() {
+        return facetingMode;
+    }
+
+    final JsonTransformer getTransformer() {
+        return transformer;
+    }
+
+    /**
+     * Enables or disables the near-real-time mode.
+     * <p>
+     * In near-real-time mode searchers are obtained from the underlying writers,
+     * so uncommitted changes become visible to queries without paying for a
+     * commit (fsync). Searchers are refreshed in background every
+     * <code>refreshMillis</code> milliseconds (no background refresh if
+     * <code>refreshMillis &lt;= 0</code>) and on {@link #refresh()} and
+     * {@link #commit()} calls.
+     * <p>
+     * Near-real-time mode claims the writing lock of the database.
+     *
+     * @param nearRealTime
+     * @param refreshMillis
+     */
+    public synchronized void setNearRealTime(boolean nearRealTime, long refreshMillis) {
+        verifyNotClosed();
+        try {
+            stopRefresher();
+            this.nearRealTime = nearRealTime;
+            this.refreshMillis = refreshMillis;
+            ReferenceManager<?> previous = this.searcherManager;
+            if (previous != null) {
+                // Unpublished before closing (under the lock of getSearcherManager()), so that concurrent acquisitions failing on it retry with a new one. In-flight acquisitions remain valid until released
+                this.searcherManager = null;
+                previous.close();
             }
+            if (nearRealTime && refreshMillis > 0) {
+                this.refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "flea-db-refresher");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+                this.refresher.scheduleWithFixedDelay(new Runnable() {
+                    @Override
+                    public void run() {
+                        ReferenceManager<?> sm = searcherManager;
+                        if (sm != null) {
+                            try {
+                                sm.maybeRefresh();
+                            } catch (Exception ex) {
+                                // Manager closed or switched concurrently. Next run will use the current one
+                            }
+                        }
+                    }
+                }, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
         }
-        return indexSearcher;
     }
 
-    private IndexWriter getIndexWriter() throws IOException {
-        if (indexWriter == null) {
+    public boolean isNearRealTime() {
+        return nearRealTime;
+    }
+
+    public long getRefreshMillis() {
+        return refreshMillis;
+    }
+
+    private ReferenceManager<?> getSearcherManager() throws IOException {
+        if (searcherManager == null) {
             synchronized (this) {
-                if (indexWriter == null) {
-                    IndexWriterConfig config = new IndexWriterConfig(LUCENE_VERSION, null);
-                    config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
-                    this.indexWriter = new IndexWriter(indexDir, config);
+                if (searcherManager == null) {
+                    if (facetingMode == FacetingMode.TAXONOMY) {
+                        if (nearRealTime) {
+                            searcherManager = new SearcherTaxonomyManager(getIndexWriter(), true, null, getTaxonomyWriter());
+                        } else {
+                            searcherManager = new SearcherTaxonomyManager(indexDir, facetDir, null);
+                        }
+                    } else if (nearRealTime) {
+                        searcherManager = new SearcherManager(getIndexWriter(), true, null);
+                    } else {
+                        searcherManager = new SearcherManager(indexDir, null);
+                    }
                 }
             }
         }
-        return indexWriter;
+        return searcherManager;
     }
 
-    private TaxonomyReader getTaxonomyReader() throws IOException {
-        if (taxonomyReader == null) {
+    /**
+     * Acquires the current searcher and taxonomy reader pair (with no taxonomy
+     * reader in {@link FacetingMode#SORTED_SET} mode). Must be released via
+     * {@link #release(SearcherAndTaxonomy)}.
+     *
+     * @return
+     * @throws IOException
+     */
+    private SearcherAndTaxonomy acquire() throws IOException {
+        while (true) {
+            Object ref;
+            try {
+                ref = getSearcherManager().acquire();
+            } catch (AlreadyClosedException ex) {
+                // Manager switched concurrently by setNearRealTime(), retry with the current one
+                verifyNotClosed();
+                continue;
+            }
+            if (ref instanceof SearcherAndTaxonomy) {
+                return (SearcherAndTaxonomy) ref;
+            }
+            return new SearcherAndTaxonomy((IndexSearcher) ref, null);
+        }
+    }
+
+    private void release(SearcherAndTaxonomy pair) throws IOException {
+        // Not delegated to the manager, that may have been switched since the acquisition
+        pair.searcher.getIndexReader().decRef();
+        if (pair.taxonomyReader != null) {
+            pair.taxonomyReader.decRef();
+        }
+    }
+
+    /**
+     * Returns the sorted set faceting state of the specified reader, or
+     * <code>null</code> if no facet value has been indexed. Global ordinals
+     * are computed once per reader, under a lock of their own so that writes
+     * and commits are not blocked meanwhile, and released when the reader is
+     * closed.
+     */
+    private SortedSetDocValuesReaderState getReaderState(IndexReader reader) throws IOException {
+        synchronized (readerStates) {
+            if (readerStates.containsKey(reader)) {
+                return readerStates.get(reader);
+            }
+            SortedSetDocValuesReaderState state;
+            try {
+                state = new DefaultSortedSetDocValuesReaderState(reader);
+            } catch (IllegalArgumentException ex) {
+                // Facet field not present in the index yet
+                state = null;
+            }
+            readerStates.put(reader, state);
+            reader.addReaderClosedListener(new IndexReader.ReaderClosedListener() {
+                @Override
+                public void onClose(IndexReader reader) {
+                    synchronized (readerStates) {
+                        readerStates.remove(reader);
+                    }
+                }
+            });
+            return state;
+        }
+    }
+
+    private IndexWriter getIndexWriter() throws IOException {
+        if (indexWriter == null) {
             synchronized (this) {
-                if (taxonomyReader == null) {
-                    taxonomyReader = new DirectoryTaxonomyReader(facetDir);
+                if (indexWriter == null) {
+                    this.indexWriter = new IndexWriter(indexDir, createIndexWriterConfig(bloomFilteredKey && getSchema().getKeyField() != null));
                 }
             }
         }
-        return taxonomyReader;
+        return indexWriter;
     }
 
-    private TaxonomyWriter getTaxonomyWriter() throws IOException {
+    private DirectoryTaxonomyWriter getTaxonomyWriter() throws IOException {
         if (taxonomyWriter == null) {
             synchronized (this) {
                 if (taxonomyWriter == null) {
@@ -237,15 +567,18 @@ public final class GenericFleaDB implements FleaDB<JsonNode> {
                 throw new IllegalStateException("Datasource has been closed already");
             }
             closed = true;
-            if (this.taxonomyReader != null) {
-                this.taxonomyReader.close();
+            stopRefresher();
+            if (this.aggregationExecutor != null) {
+                this.aggregationExecutor.shutdown();
+            }
+            facetCache.clear();
+            labelIndexes.clear();
+            if (this.searcherManager != null) {
+                this.searcherManager.close();
             }
             if (this.taxonomyWriter != null) {
                 this.taxonomyWriter.close();
             }
-            if (this.indexSearcher != null) {
-                this.indexSearcher.getIndexReader().close();
-            }
             if (this.indexWriter != null) {
                 this.indexWriter.close();
             }
@@ -254,13 +587,64 @@ public final class GenericFleaDB implements FleaDB<JsonNode> {
         }
     }
 
+    /**
+     * Records are never ranked by relevance, so queries are executed in
+     * constant-score mode, skipping the computation of scores.
+     */
+    private org.apache.lucene.search.Query getLuceneQuery(Query q) {
+        org.apache.lucene.search.Query ret = q.getLuceneQuery(getSchema());
+        if (ret instanceof MatchAllDocsQuery || ret instanceof ConstantScoreQuery) {
+            return ret;
+        }
+        return new ConstantScoreQuery(ret);
+    }
+
     @Override
     public JsonNode getSingleResult(Query q) {
-        Paginator<JsonNode> paginator = query(q, null);
-        if (paginator.getTotalHits() > 1) {
-            throw new IllegalArgumentException("Query returned more than 1 results");
+        return getSingleResult(q, this.transformer);
+    }
+
+    final <T> T getSingleResult(Query q, DocTransformer<T> docTransformer) {
+        verifyNotClosed();
+        return new PaginatorImpl<T>(searcherSource, docTransformer, getLuceneQuery(q), null).getSingleElement();
+    }
+
+    @Override
+    public JsonNode getById(Object key) {
+        return getById(key, this.transformer);
+    }
+
+    /**
+     * Direct term lookup over the key field, segment by segment.
+     */
+    final <T> T getById(Object key, DocTransformer<T> docTransformer) {
+        verifyNotClosed();
+        if (getSchema().getKeyField() == null) {
+            throw new IllegalStateException("Database schema does not declare a key field");
+        }
+        if (key == null) {
+            throw new IllegalArgumentException("Key is required");
+        }
+        try {
+            Term term = new Term(JsonTransformer.KEY_FIELD_NAME, JsonTransformer.toKeyString(key));
+            IndexSearcher searcher = searcherSource.acquire();
+            try {
+                for (AtomicReaderContext context : searcher.getIndexReader().leaves()) {
+                    DocsEnum docsEnum = context.reader().termDocsEnum(term);
+                    if (docsEnum != null) {
+                        int doc = docsEnum.nextDoc();
+                        if (doc != DocIdSetIterator.NO_MORE_DOCS) {
+                            return docTransformer.documentToEntity(context.reader().document(doc));
+                        }
+                    }
+                }
+                return null;
+            } finally {
+                searcherSource.release(searcher);
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
         }
-        return paginator.getFirstElement();
     }
 
     @Override
@@ -270,20 +654,40 @@ public final class GenericFleaDB implements FleaDB<JsonNode> {
 
     @Override
     public final Paginator<JsonNode> query(final Query q, final Sort sort) {
-        try {
-            verifyNotClosed();
-            return new PaginatorImpl<JsonNode>(getIndexSearcher(), this.transformer, q.getLuceneQuery(getSchema()), sort == null ? null : sort.getLuceneSort(getSchema()));
-        } catch (IOException ex) {
-            throw new RuntimeException(ex);
+        return query(q, sort, this.transformer);
+    }
+
+    final <T> Paginator<T> query(final Query q, final Sort sort, DocTransformer<T> docTransformer) {
+        verifyNotClosed();
+        return new PaginatorImpl<T>(searcherSource, docTransformer, getLuceneQuery(q), sort == null ? null : sort.getLuceneSort(getSchema()));
+    }
+
+    @Override
+    public final RecordIterator<JsonNode> iterator(final Query q) {
+        return iterator(q, null, null);
+    }
+
+    @Override
+    public final RecordIterator<JsonNode> iterator(final Query q, final Sort sort) {
+        return iterator(q, sort, null);
+    }
+
+    @Override
+    public final RecordIterator<JsonNode> iterator(final Query q, final Sort sort, ExportOptions options) {
+        return iterator(q, sort, options, this.transformer);
+    }
+
+    final <T> RecordIterator<T> iterator(final Query q, final Sort sort, ExportOptions options, DocTransformer<T> docTransformer) {
+        verifyNotClosed();
+        if (sort == null) {
+            return new RecordIteratorImpl<T>(searcherSource, docTransformer, getLuceneQuery(q));
         }
+        return new SortedRecordIterator<T>(searcherSource, docTransformer, getLuceneQuery(q), sort.getLuceneSort(getSchema()), options);
     }
 
     @Override
     public final List<FacetResponse> getFacetValues(final Query q, int maxFacetValues) {
         verifyNotClosed();
-        if (getSchema().getFacetFields().isEmpty()) {
-            return null;
-        }
         FacetMultiplicities facetMultiplicities = null;
         for (Map.Entry<String, Boolean> entry : getSchema().getFacetFields().entrySet()) {
             String facetName = entry.getKey();
@@ -293,7 +697,18 @@ public final class GenericFleaDB implements FleaDB<JsonNode> {
                 facetMultiplicities.and(facetName, maxFacetValues);
             }
         }
-        return getFacetValues(q, facetMultiplicities);
+        // Range facets with ranges declared in the schema
+        FacetRanges facetRanges = null;
+        for (Map.Entry<String, List<FacetRange>> entry : getSchema().getRangeFacetFields().entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                if (facetRanges == null) {
+                    facetRanges = FacetRanges.set(entry.getKey());
+                } else {
+                    facetRanges.and(entry.getKey());
+                }
+            }
+        }
+        return getFacetValues(q, facetMultiplicities, facetRanges, null);
     }
 
     @Override
@@ -304,60 +719,374 @@ public final class GenericFleaDB implements FleaDB<JsonNode> {
 
     @Override
     public final List<FacetResponse> getFacetValues(final Query q, FacetMultiplicities facetMultiplicities) {
+        return getFacetValues(q, facetMultiplicities, null);
+    }
+
+    @Override
+    public final List<FacetResponse> getFacetValues(final Query q, FacetMultiplicities facetMultiplicities, FacetSampling sampling) {
+        return getFacetValues(q, facetMultiplicities, null, sampling);
+    }
+
+    /**
+     * Value facets and range facets are counted over the hits gathered by the
+     * same collector pass.
+     */
+    @Override
+    public final List<FacetResponse> getFacetValues(final Query q, FacetMultiplicities facetMultiplicities, FacetRanges facetRanges, FacetSampling sampling) {
         verifyNotClosed();
-        if (facetMultiplicities == null) {
+        if (facetMultiplicities == null && facetRanges == null) {
             return null;
         }
+        Map<String, Integer> facetMap = facetMultiplicities == null ? null : facetMultiplicities.getFacetMap(getSchema());
+        Map<String, List<FacetRange>> rangeMap = facetRanges == null ? null : facetRanges.getRangeMap(getSchema());
+        org.apache.lucene.search.Query luceneQuery = getLuceneQuery(q);
+        // Sampled responses are not cached
+        FacetCache.Key cacheKey = sampling == null ? new FacetCache.Key(luceneQuery, facetMap, rangeMap) : null;
         try {
-            List<FacetResponse> ret = new ArrayList<FacetResponse>();
-            FacetsCollector facetCollector = new FacetsCollector();
-            getIndexSearcher().search(q.getLuceneQuery(getSchema()), facetCollector);
-            FacetsConfig config = new FacetsConfig();
-            FastTaxonomyFacetCounts facets = new FastTaxonomyFacetCounts(getTaxonomyReader(), config, facetCollector);
-
-            Map<String, Integer> facetMap = facetMultiplicities.getFacetMap(getSchema());
-            for (Map.Entry<String, Integer> entry : facetMap.entrySet()) {
-                String facetName = entry.getKey();
-                Integer multiplicity = entry.getValue();
-                FacetResult res = facets.getTopChildren(multiplicity, facetName);
-                if (res != null) {
-                    FacetResponseImpl fr = new FacetResponseImpl(facetName);
-                    fr.setNumFacetValues(res.childCount);
-                    ret.add(fr);
-                    LabelAndValue[] lvs = res.labelValues;
-                    for (int j = 0; j < lvs.length; j++) {
-                        LabelAndValue lv = lvs[j];
-                        FacetValueResponseImpl fvresp = new FacetValueResponseImpl(lv.label, lv.value.doubleValue());
-                        fr.getFacetValues().add(fvresp);
+            FacetsCollector facetCollector;
+            if (sampling == null) {
+                facetCollector = new FacetsCollector();
+            } else {
+                facetCollector = new RandomSamplingFacetsCollector(sampling.getSampleSize(), sampling.getSeed());
+            }
+            SearcherAndTaxonomy pair = acquire();
+            try {
+                long readerVersion = ((DirectoryReader) pair.searcher.getIndexReader()).getVersion();
+                if (cacheKey != null) {
+                    List<FacetResponse> cached = facetCache.get(readerVersion, cacheKey);
+                    if (cached != null) {
+                        return cached;
                     }
+                }
+                pair.searcher.search(luceneQuery, facetCollector);
+                double amplification = 1;
+                boolean estimate = false;
+                if (sampling != null) {
+                    int totalHits = 0;
+                    for (FacetsCollector.MatchingDocs matchingDocs : ((RandomSamplingFacetsCollector) facetCollector).getOriginalMatchingDocs()) {
+                        totalHits += matchingDocs.totalHits;
+                    }
+                    // Otherwise all matching records have been counted
+                    if (totalHits > sampling.getSampleSize()) {
+                        estimate = true;
+                        amplification = sampling.isAmplify() ? (double) totalHits / sampling.getSampleSize() : 1;
+                    }
+                }
+                List<FacetResponse> ret = new ArrayList<FacetResponse>();
+                if (facetMap != null) {
+                    Facets facets;
+                    SortedSetDocValuesReaderState state = null;
+                    if (facetingMode == FacetingMode.TAXONOMY) {
+                        facets = new FastTaxonomyFacetCounts(pair.taxonomyReader, new FacetsConfig(), facetCollector);
+                    } else {
+                        state = getReaderState(pair.searcher.getIndexReader());
+                        facets = state == null ? null : new SortedSetDocValuesFacetCounts(state, facetCollector);
+                    }
+                    ret.addAll(toFacetResponses(facets, state, facetMap, amplification, estimate));
+                }
+                if (rangeMap != null) {
+                    for (Map.Entry<String, List<FacetRange>> entry : rangeMap.entrySet()) {
+                        String facetName = entry.getKey();
+                        Facets facets = getRangeFacetCounts(facetName, entry.getValue(), facetCollector);
+                        ret.add(toFacetResponse(facets.getTopChildren(Integer.MAX_VALUE, facetName), facetName, amplification, estimate));
+                    }
+                }
+                if (cacheKey != null) {
+                    facetCache.put(readerVersion, cacheKey, ret);
+                }
+                return ret;
+            } finally {
+                release(pair);
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static List<FacetResponse> toFacetResponses(Facets facets, SortedSetDocValuesReaderState state, Map<String, Integer> facetMap, double amplification, boolean estimate) throws IOException {
+        List<FacetResponse> ret = new ArrayList<FacetResponse>();
+        for (Map.Entry<String, Integer> entry : facetMap.entrySet()) {
+            String facetName = entry.getKey();
+            Integer multiplicity = entry.getValue();
+            FacetResult res;
+            if (facets == null || state != null && state.getOrdRange(facetName) == null) {
+                // Dimension without indexed values (throws in sorted set counts)
+                res = null;
+            } else {
+                res = facets.getTopChildren(multiplicity, facetName);
+            }
+            ret.add(toFacetResponse(res, facetName, amplification, estimate));
+        }
+        return ret;
+    }
+
+    private static FacetResponse toFacetResponse(FacetResult res, String facetName, double amplification, boolean estimate) {
+        FacetResponseImpl fr = new FacetResponseImpl(facetName);
+        fr.setEstimate(estimate);
+        if (res != null) {
+            fr.setNumFacetValues(res.childCount);
+            LabelAndValue[] lvs = res.labelValues;
+            for (int j = 0; j < lvs.length; j++) {
+                LabelAndValue lv = lvs[j];
+                FacetValueResponseImpl fvresp = new FacetValueResponseImpl(lv.label, amplification * lv.value.doubleValue());
+                fr.getFacetValues().add(fvresp);
+            }
+        } else {
+            fr.setNumFacetValues(0);
+        }
+        return fr;
+    }
+
+    /**
+     * Counts the hits falling in each range, reading the values from the
+     * NumericDocValues of the field.
+     */
+    private Facets getRangeFacetCounts(String facetName, List<FacetRange> ranges, FacetsCollector facetCollector) throws IOException {
+        if (getSchema().getIndexFields().get(facetName) == JsonNode.Type.INTEGER) {
+            LongRange[] longRanges = new LongRange[ranges.size()];
+            for (int i = 0; i < longRanges.length; i++) {
+                FacetRange range = ranges.get(i);
+                longRanges[i] = new LongRange(range.getLabel(),
+                        range.getMin() == null ? Long.MIN_VALUE : range.getMin().longValue(), true,
+                        range.getMax() == null ? Long.MAX_VALUE : range.getMax().longValue(), range.getMax() == null);
+            }
+            return new LongRangeFacetCounts(facetName, facetCollector, longRanges);
+        } else {
+            DoubleRange[] doubleRanges = new DoubleRange[ranges.size()];
+            for (int i = 0; i < doubleRanges.length; i++) {
+                FacetRange range = ranges.get(i);
+                doubleRanges[i] = new DoubleRange(range.getLabel(),
+                        range.getMin() == null ? Double.NEGATIVE_INFINITY : range.getMin().doubleValue(), true,
+                        range.getMax() == null ? Double.POSITIVE_INFINITY : range.getMax().doubleValue(), range.getMax() == null);
+            }
+            return new DoubleRangeFacetCounts(facetName, facetCollector, doubleRanges);
+        }
+    }
+
+    /**
+     * Index segments are aggregated concurrently, and their partial results
+     * merged.
+     */
+    @Override
+    public final AggregationResponse aggregate(Query q, Aggregations aggregations) {
+        verifyNotClosed();
+        return aggregate(q, aggregations, getAggregationExecutor());
+    }
+
+    /**
+     * Aggregates index segments concurrently in the specified executor, or
+     * sequentially if <code>null</code>.
+     */
+    final AggregationResponse aggregate(Query q, Aggregations aggregations, ExecutorService executor) {
+        verifyNotClosed();
+        if (aggregations == null) {
+            throw new IllegalArgumentException("Aggregations are required");
+        }
+        Map<String, JsonNode.Type> indexFields = getSchema().getIndexFields();
+        List<FieldAggregator> aggregators = new ArrayList<FieldAggregator>();
+        for (String field : aggregations.getStatsFields(getSchema())) {
+            aggregators.add(new StatsAggregator(field, indexFields.get(field)));
+        }
+        for (Map.Entry<String, Double> entry : aggregations.getHistogramIntervals(getSchema()).entrySet()) {
+            aggregators.add(new HistogramAggregator(entry.getKey(), indexFields.get(entry.getKey()), entry.getValue(), aggregations.getMaxHistogramBuckets()));
+        }
+        for (Map.Entry<String, double[]> entry : aggregations.getPercents(getSchema()).entrySet()) {
+            aggregators.add(new PercentilesAggregator(entry.getKey(), indexFields.get(entry.getKey()), entry.getValue()));
+        }
+        for (Map.Entry<String, Integer> entry : aggregations.getCardinalityPrecisions(getSchema()).entrySet()) {
+            aggregators.add(new CardinalityAggregator(entry.getKey(), indexFields.get(entry.getKey()), entry.getValue()));
+        }
+        AggregationCollector collector = new AggregationCollector(aggregators);
+        try {
+            SearcherAndTaxonomy pair = acquire();
+            try {
+                collector.search(pair.searcher, getLuceneQuery(q), executor);
+            } finally {
+                release(pair);
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+        AggregationResponseImpl ret = new AggregationResponseImpl();
+        collector.addTo(ret);
+        return ret;
+    }
+
+    /**
+     * Lazily created pool aggregating index segments concurrently, or
+     * <code>null</code> in single processor machines.
+     */
+    private synchronized ExecutorService getAggregationExecutor() {
+        int threads = Runtime.getRuntime().availableProcessors();
+        if (this.aggregationExecutor == null && threads > 1) {
+            this.aggregationExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "flea-db-aggregation");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return this.aggregationExecutor;
+    }
+
+    @Override
+    public final DrillSidewaysResponse<JsonNode> drillSideways(Query q, FacetSelections selections, FacetMultiplicities facetMultiplicities, Sort sort, int pageNum, int pageSize) {
+        return drillSideways(q, selections, facetMultiplicities, sort, pageNum, pageSize, this.transformer);
+    }
+
+    /**
+     * Computes the hits and the drill-down and sideways facet counts in a
+     * single traversal of the index, by means of {@link DrillSideways}.
+     */
+    final <T> DrillSidewaysResponse<T> drillSideways(Query q, FacetSelections selections, FacetMultiplicities facetMultiplicities, Sort sort, int pageNum, int pageSize, DocTransformer<T> docTransformer) {
+        verifyNotClosed();
+        if (pageNum < 1) {
+            throw new IllegalArgumentException("pageNum must be greater than 0");
+        }
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be greater than 0");
+        }
+        if (facetMultiplicities == null) {
+            throw new IllegalArgumentException("Facet multiplicities are required");
+        }
+        Map<String, Integer> facetMap = facetMultiplicities.getFacetMap(getSchema());
+        DrillDownQuery ddq = new DrillDownQuery(facetsConfig, getLuceneQuery(q));
+        if (selections != null) {
+            for (Map.Entry<String, List<String>> entry : selections.getSelectionMap(getSchema()).entrySet()) {
+                for (String value : entry.getValue()) {
+                    ddq.add(entry.getKey(), value);
+                }
+            }
+        }
+        org.apache.lucene.search.Sort luceneSort = sort == null ? org.apache.lucene.search.Sort.INDEXORDER : sort.getLuceneSort(getSchema());
+        int topN = pageNum * pageSize;
+        try {
+            SearcherAndTaxonomy pair = acquire();
+            try {
+                SortedSetDocValuesReaderState state = null;
+                TopDocs hits;
+                Facets facets;
+                if (facetingMode == FacetingMode.SORTED_SET && (state = getReaderState(pair.searcher.getIndexReader())) == null) {
+                    // No facet values indexed yet, hence no facet counts
+                    TopFieldCollector collector = TopFieldCollector.create(luceneSort, topN, null, true, false, false, false);
+                    pair.searcher.search(ddq, collector);
+                    hits = collector.topDocs();
+                    facets = null;
                 } else {
-                    FacetResponseImpl fr = new FacetResponseImpl(facetName);
-                    fr.setNumFacetValues(0);
-                    ret.add(fr);
+                    DrillSideways ds;
+                    if (facetingMode == FacetingMode.TAXONOMY) {
+                        ds = new DrillSideways(pair.searcher, facetsConfig, pair.taxonomyReader);
+                    } else {
+                        ds = new DrillSideways(pair.searcher, facetsConfig, state);
+                    }
+                    DrillSideways.DrillSidewaysResult result = ds.search(ddq, null, null, topN, luceneSort, false, false);
+                    hits = result.hits;
+                    facets = result.facets;
+                }
+                List<T> elements = new ArrayList<T>();
+                for (int i = (pageNum - 1) * pageSize; i < hits.scoreDocs.length; i++) {
+                    elements.add(docTransformer.documentToEntity(pair.searcher.doc(hits.scoreDocs[i].doc)));
                 }
+                return new DrillSidewaysResponseImpl<T>(hits.totalHits, elements, toFacetResponses(facets, state, facetMap, 1, false));
+            } finally {
+                release(pair);
             }
-            return ret;
         } catch (IOException ex) {
             throw new RuntimeException(ex);
         }
     }
 
+    /**
+     * Returns the <code>max</code> most frequent values of the facet starting
+     * with the prefix, being the value equal to the prefix (if any) the first
+     * one. Only the values matching the prefix are looked up and counted.
+     */
     @Override
     public final List<FacetResponse> getFacetValuesStartingWith(String facetName, final String prefix, Query q, int max) {
         verifyNotClosed();
-        BooleanQuery bq = new BooleanQuery();
-        bq.add(q, BooleanClause.Occur.MUST);
+        if (prefix == null) {
+            return getFacetValues(q, FacetMultiplicities.set(facetName, max));
+        }
+        if (!getSchema().getFacetFields().containsKey(facetName)) {
+            throw new IllegalArgumentException("Invalid facet name: " + facetName + ". Supported values are: " + getSchema().getFacetFields().keySet());
+        }
+        if (max < 1) {
+            throw new IllegalArgumentException("Max must be greater than 0");
+        }
+        try {
+            FacetsCollector facetCollector = new FacetsCollector();
+            List<LabelAndValue> matches;
+            SearcherAndTaxonomy pair = acquire();
+            try {
+                pair.searcher.search(getLuceneQuery(q), facetCollector);
+                if (facetingMode == FacetingMode.TAXONOMY) {
+                    matches = PrefixFacetCounts.countTaxonomy(facetsConfig.getDimConfig(facetName).indexFieldName, getLabelIndex(pair.taxonomyReader, facetName), prefix, facetCollector);
+                } else {
+                    SortedSetDocValuesReaderState state = getReaderState(pair.searcher.getIndexReader());
+                    if (state == null) {
+                        matches = new ArrayList<LabelAndValue>();
+                    } else {
+                        matches = PrefixFacetCounts.countSortedSet(state, facetName, prefix, facetCollector);
+                    }
+                }
+            } finally {
+                release(pair);
+            }
+            Collections.sort(matches, PrefixFacetCounts.COMPARATOR);
+            FacetResponseImpl fr = new FacetResponseImpl(facetName);
+            fr.setNumFacetValues(matches.size());
+            for (int i = 0; i < matches.size(); i++) {
+                LabelAndValue lv = matches.get(i);
+                FacetValueResponseImpl fvresp = new FacetValueResponseImpl(lv.label, lv.value.doubleValue());
+                if (prefix.equals(lv.label)) {
+                    fr.getFacetValues().add(0, fvresp);
+                } else if (fr.getFacetValues().size() < max) {
+                    fr.getFacetValues().add(fvresp);
+                }
+            }
+            if (fr.getFacetValues().size() > max) {
+                fr.getFacetValues().remove(max);
+            }
+            List<FacetResponse> ret = new ArrayList<FacetResponse>(1);
+            ret.add(fr);
+            return ret;
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
 
-        List<FacetResponse> startingResponse = getFacetValues(bq, FacetMultiplicities.set(facetName, max));
-        if (prefix != null) {
-            double exactMultiplicity = getFacetValueMultiplicity(facetName, prefix, q);
-            if (exactMultiplicity > 0) {
-                FacetValueResponseImpl exactMatch = new FacetValueResponseImpl(prefix, exactMultiplicity);
-                startingResponse.get(0).getFacetValues().remove(exactMatch);
-                startingResponse.get(0).getFacetValues().add(0, exactMatch);
+    /**
+     * Returns the sorted label index of the dimension for the specified
+     * taxonomy reader, built on first use. Indexes are kept per taxonomy reader
+     * and dropped once it is closed (taxonomy readers offer no close listeners,
+     * so closed readers are purged when a new one is seen).
+     */
+    private PrefixFacetCounts.LabelIndex getLabelIndex(TaxonomyReader taxoReader, String dim) throws IOException {
+        ConcurrentHashMap<String, PrefixFacetCounts.LabelIndex> readerIndexes = labelIndexes.get(taxoReader);
+        if (readerIndexes == null) {
+            Iterator<TaxonomyReader> it = labelIndexes.keySet().iterator();
+            while (it.hasNext()) {
+                if (it.next().getRefCount() <= 0) {
+                    it.remove();
+                }
+            }
+            readerIndexes = new ConcurrentHashMap<String, PrefixFacetCounts.LabelIndex>();
+            ConcurrentHashMap<String, PrefixFacetCounts.LabelIndex> previous = labelIndexes.putIfAbsent(taxoReader, readerIndexes);
+            if (previous != null) {
+                readerIndexes = previous;
             }
         }
-        return startingResponse;
+        PrefixFacetCounts.LabelIndex ret = readerIndexes.get(dim);
+        if (ret == null) {
+            ret = PrefixFacetCounts.LabelIndex.build(taxoReader, dim);
+            PrefixFacetCounts.LabelIndex previous = readerIndexes.putIfAbsent(dim, ret);
+            if (previous != null) {
+                ret = previous;
+            }
+        }
+        return ret;
     }
 
     @Override
@@ -389,7 +1118,9 @@ public final class GenericFleaDB implements FleaDB<JsonNode> {
     public final void commit() {
         try {
             verifyNotClosed();
-            this.getTaxonomyWriter().commit();
+            if (facetingMode == FacetingMode.TAXONOMY) {
+                this.getTaxonomyWriter().commit();
+            }
             this.getIndexWriter().commit();
             refresh();
         } catch (IOException ex) {
@@ -399,25 +1130,181 @@ public final class GenericFleaDB implements FleaDB<JsonNode> {
 
     @Override
     public final void store(JsonNode entity) {
+        store(this.transformer.entityToDocument(entity));
+    }
+
+    final void store(Pair<Document, List<FacetField>> pair) {
         try {
             verifyNotClosed();
-            Pair<Document, List<FacetField>> pair = this.transformer.entityToDocument(entity);
-            Document doc = pair.getElement1();
-            List<FacetField> facetFields = pair.getElement2();
-            if (facetFields != null) {
-                for (int i = 0; i < facetFields.size(); i++) {
-                    String facetName = facetFields.get(i).dim;
-                    boolean multievaluated = facetName.contains("[*]") || facetName.contains("[#]");
-                    if (multievaluated) {
-                        facetsConfig.setMultiValued(facetName, multievaluated);
+            this.getIndexWriter().addDocument(buildDocument(pair));
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @Override
+    public final void upsert(JsonNode entity) {
+        upsert(this.transformer.entityToDocument(entity));
+    }
+
+    final void upsert(Pair<Document, List<FacetField>> pair) {
+        verifyNotClosed();
+        if (getSchema().getKeyField() == null) {
+            throw new IllegalStateException("Database schema does not declare a key field");
+        }
+        String key = JsonTransformer.getKey(pair.getElement1());
+        if (key == null) {
+            throw new IllegalArgumentException("Record has no value for key field " + getSchema().getKeyField());
+        }
+        try {
+            this.getIndexWriter().updateDocument(new Term(JsonTransformer.KEY_FIELD_NAME, key), buildDocument(pair));
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @Override
+    public final long storeAll(Iterable<JsonNode> entities) {
+        return storeAll(entities, null);
+    }
+
+    @Override
+    public final long storeAll(Iterable<JsonNode> entities, BulkOptions options) {
+        return storeAll(entities, options, this.transformer);
+    }
+
+    /**
+     * Bulk load. Records are read from the caller thread, grouped in batches,
+     * and validated and transformed by a pool of worker threads that pass the
+     * resulting documents at once to the index writer. The writer is tuned
+     * for the duration of the load according to the specified options.
+     */
+    final <T> long storeAll(Iterable<T> entities, BulkOptions options, final DocTransformer<T> docTransformer) {
+        verifyNotClosed();
+        if (options == null) {
+            options = BulkOptions.create();
+        }
+        final BulkListener listener = options.getListener();
+        final IndexWriter writer;
+        try {
+            writer = getIndexWriter();
+            if (facetingMode == FacetingMode.TAXONOMY) {
+                getTaxonomyWriter();
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+        LiveIndexWriterConfig config = writer.getConfig();
+        double previousRamBufferMB = config.getRAMBufferSizeMB();
+        ConcurrentMergeScheduler cms = null;
+        int previousMaxMerges = 0;
+        int previousMaxMergeThreads = 0;
+        if (options.getRamBufferMB() > 0) {
+            config.setRAMBufferSizeMB(options.getRamBufferMB());
+        }
+        if (options.getMergeThreads() > 0 && config.getMergeScheduler() instanceof ConcurrentMergeScheduler) {
+            cms = (ConcurrentMergeScheduler) config.getMergeScheduler();
+            previousMaxMerges = cms.getMaxMergeCount();
+            previousMaxMergeThreads = cms.getMaxThreadCount();
+            cms.setMaxMergesAndThreads(options.getMergeThreads() + 5, options.getMergeThreads());
+        }
+        final AtomicLong stored = new AtomicLong();
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        final long start = System.currentTimeMillis();
+        // Bounds the number of batches held in memory
+        final Semaphore semaphore = new Semaphore(2 * options.getThreads());
+        ExecutorService executor = Executors.newFixedThreadPool(options.getThreads(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "flea-db-bulk");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        try {
+            Iterator<T> it = entities.iterator();
+            while (it.hasNext() && error.get() == null) {
+                final List<T> batch = new ArrayList<T>(options.getBatchSize());
+                while (it.hasNext() && batch.size() < options.getBatchSize()) {
+                    T entity = it.next();
+                    if (entity != null) {
+                        batch.add(entity);
+                    }
+                }
+                semaphore.acquireUninterruptibly();
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            if (error.get() != null) {
+                                return;
+                            }
+                            List<Document> docs = new ArrayList<Document>(batch.size());
+                            for (int i = 0; i < batch.size(); i++) {
+                                docs.add(buildDocument(docTransformer.entityToDocument(batch.get(i))));
+                            }
+                            writer.addDocuments(docs);
+                            long total = stored.addAndGet(docs.size());
+                            if (listener != null) {
+                                long elapsed = Math.max(1, System.currentTimeMillis() - start);
+                                listener.onProgress(total, 1000d * total / elapsed);
+                            }
+                        } catch (Throwable th) {
+                            error.compareAndSet(null, th);
+                        } finally {
+                            semaphore.release();
+                        }
                     }
+                });
+            }
+        } finally {
+            executor.shutdown();
+            try {
+                while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                error.compareAndSet(null, ex);
+            }
+            config.setRAMBufferSizeMB(previousRamBufferMB);
+            if (cms != null) {
+                cms.setMaxMergesAndThreads(previousMaxMerges, previousMaxMergeThreads);
+            }
+        }
+        Throwable th = error.get();
+        if (th != null) {
+            if (th instanceof RuntimeException) {
+                throw (RuntimeException) th;
+            } else if (th instanceof Error) {
+                throw (Error) th;
+            } else {
+                throw new RuntimeException(th);
+            }
+        }
+        return stored.get();
+    }
+
+    private Document buildDocument(Pair<Document, List<FacetField>> pair) throws IOException {
+        Document doc = pair.getElement1();
+        List<FacetField> facetFields = pair.getElement2();
+        if (facetFields != null) {
+            for (int i = 0; i < facetFields.size(); i++) {
+                String facetName = facetFields.get(i).dim;
+                boolean multievaluated = facetName.contains("[*]") || facetName.contains("[#]");
+                if (multievaluated) {
+                    facetsConfig.setMultiValued(facetName, multievaluated);
+                }
+                if (facetingMode == FacetingMode.TAXONOMY) {
                     doc.add(facetFields.get(i));
+                } else {
+                    doc.add(new SortedSetDocValuesFacetField(facetName, facetFields.get(i).path[0]));
                 }
             }
-            this.getIndexWriter().addDocument(this.facetsConfig.build(getTaxonomyWriter(), doc));
-        } catch (IOException ex) {
-            throw new RuntimeException(ex);
         }
+        if (facetingMode == FacetingMode.TAXONOMY) {
+            return this.facetsConfig.build(getTaxonomyWriter(), doc);
+        }
+        return this.facetsConfig.build(doc);
     }
 
     private void verifyNotClosed() {
@@ -469,9 +1356,30 @@ public final class GenericFleaDB implements FleaDB<JsonNode> {
 //        }
     }
 
-    private synchronized void refresh() {
-        this.indexSearcher = null;
-        this.taxonomyReader = null;
+    /**
+     * Makes searchers reflect the last changes: committed ones, or also
+     * uncommitted ones if in near-real-time mode.
+     */
+    public void refresh() {
+        verifyNotClosed();
+        try {
+            ReferenceManager<?> sm = this.searcherManager;
+            if (sm != null) {
+                sm.maybeRefreshBlocking();
+            }
+        } catch (AlreadyClosedException ex) {
+            // Manager switched concurrently by setNearRealTime(). The new one is created up to date
+            verifyNotClosed();
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private synchronized void stopRefresher() {
+        if (this.refresher != null) {
+            this.refresher.shutdownNow();
+            this.refresher = null;
+        }
     }
 
 }
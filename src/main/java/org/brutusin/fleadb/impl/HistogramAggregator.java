@@ -0,0 +1,79 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.brutusin.fleadb.aggregation.Histogram;
+import org.brutusin.json.spi.JsonNode;
+
+/**
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+final class HistogramAggregator extends NumericAggregator {
+
+    private final double interval;
+    private final int maxBuckets;
+    // Counts by bucket number (lower bound divided by the interval)
+    private final TreeMap<Long, long[]> buckets = new TreeMap<Long, long[]>();
+
+    HistogramAggregator(String field, JsonNode.Type type, double interval, int maxBuckets) {
+        super(field, type);
+        this.interval = interval;
+        this.maxBuckets = maxBuckets;
+    }
+
+    @Override
+    void add(double value) {
+        add((long) Math.floor(value / interval), 1);
+    }
+
+    private void add(Long bucket, long count) {
+        long[] counts = buckets.get(bucket);
+        if (counts == null) {
+            if (buckets.size() == maxBuckets) {
+                throw new IllegalArgumentException("Histogram of field " + getField() + " exceeds the maximum number of buckets (" + maxBuckets + "). Use a wider interval or a greater limit");
+            }
+            counts = new long[1];
+            buckets.put(bucket, counts);
+        }
+        counts[0] += count;
+    }
+
+    @Override
+    NumericAggregator emptyCopy() {
+        return new HistogramAggregator(getField(), getType(), interval, maxBuckets);
+    }
+
+    @Override
+    void merge(FieldAggregator other) {
+        for (Map.Entry<Long, long[]> entry : ((HistogramAggregator) other).buckets.entrySet()) {
+            add(entry.getKey(), entry.getValue()[0]);
+        }
+    }
+
+    @Override
+    void addTo(AggregationResponseImpl response) {
+        List<Histogram.Bucket> list = new ArrayList<Histogram.Bucket>(buckets.size());
+        for (Map.Entry<Long, long[]> entry : buckets.entrySet()) {
+            list.add(new Histogram.Bucket(entry.getKey() * interval, entry.getValue()[0]));
+        }
+        response.getHistograms().put(getField(), new Histogram(getField(), interval, list));
+    }
+}
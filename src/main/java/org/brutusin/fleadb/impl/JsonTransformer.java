@@ -15,18 +15,30 @@
  */
 package org.brutusin.fleadb.impl;
 
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.DoubleDocValuesField;
 import org.apache.lucene.document.DoubleField;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.FieldType;
 import org.apache.lucene.document.LongField;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.SortedNumericDocValuesField;
+import org.apache.lucene.document.SortedSetDocValuesField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.facet.FacetField;
 import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.NumericUtils;
 import org.brutusin.commons.Pair;
 import org.brutusin.json.ValidationException;
 import org.brutusin.json.util.LazyJsonNode;
@@ -45,6 +57,10 @@ public class JsonTransformer implements DocTransformer<JsonNode> {
 
     private static final FieldType NON_INDEXED_TYPE = new FieldType();
     private static final String OBJECT_FIELD_NAME = "$json";
+    /**
+     * Field holding the string representation of the record key, if any
+     */
+    static final String KEY_FIELD_NAME = "$key";
 
     static {
         NON_INDEXED_TYPE.setIndexed(false);
@@ -53,31 +69,96 @@ public class JsonTransformer implements DocTransformer<JsonNode> {
 
     private final Schema schema;
     private final JsonSchema jsonSchema;
+    private final List<FieldPlan> plans;
+    // Plans sharing path prefixes, merged to walk each record once
+    private final PathNode pathTree;
+    // Plans whose path can not be merged in the tree, projected one by one
+    private final List<FieldPlan> projectedPlans;
 
     public JsonTransformer(Schema schema) {
         this.schema = schema;
         try {
             if (schema != null) {
                 this.jsonSchema = schema.getJSONSChema();
+                this.plans = compilePlans(schema, jsonSchema);
             } else {
                 this.jsonSchema = null;
+                this.plans = Collections.emptyList();
+            }
+            this.pathTree = new PathNode();
+            this.projectedPlans = new ArrayList<FieldPlan>();
+            for (FieldPlan plan : plans) {
+                if (plan.entityPath == null) {
+                    projectedPlans.add(plan);
+                } else {
+                    pathTree.add(plan, 0);
+                }
             }
         } catch (Exception ex) {
             throw new RuntimeException(ex);
         }
     }
 
+    /**
+     * Compiles the field expressions and projects their schemas once, grouping
+     * index and facet fields sharing the same path, so that each path is
+     * projected only once per record.
+     *
+     * @param schema
+     * @param jsonSchema
+     * @return
+     */
+    private static List<FieldPlan> compilePlans(Schema schema, JsonSchema jsonSchema) {
+        Map<String, FieldPlan> planMap = new LinkedHashMap<String, FieldPlan>();
+        for (String indexField : schema.getIndexFields().keySet()) {
+            Expression exp = JsonCodec.getInstance().compile(indexField);
+            planMap.put(indexField, new FieldPlan(indexField, exp, exp.projectSchema(jsonSchema), schema.getIndexFields().get(indexField)));
+        }
+        for (String facetField : schema.getFacetFields().keySet()) {
+            FieldPlan plan = planMap.get(facetField);
+            if (plan == null) {
+                plan = new FieldPlan(facetField, JsonCodec.getInstance().compile(facetField), null, null);
+                planMap.put(facetField, plan);
+            }
+            plan.facet = true;
+        }
+        for (String docValuesField : schema.getDocValuesFields()) {
+            planMap.get(docValuesField).docValues = true;
+        }
+        String keyField = schema.getKeyField();
+        if (keyField != null) {
+            planMap.get(keyField).key = true;
+        }
+        return new ArrayList<FieldPlan>(planMap.values());
+    }
+
+    JsonSchema getJsonSchema() {
+        return jsonSchema;
+    }
+
     public Pair<Document, List<FacetField>> entityToDocument(JsonNode jsonNode) {
         if (jsonNode == null) {
             return null;
         }
+        return entityToDocument(jsonNode, jsonNode.toString());
+    }
+
+    /**
+     * Transforms an entity whose JSON serialization is already available, to
+     * avoid serializing it again.
+     *
+     * @param jsonNode
+     * @param json
+     * @return
+     */
+    Pair<Document, List<FacetField>> entityToDocument(JsonNode jsonNode, String json) {
         try {
             jsonSchema.validate(jsonNode);
         } catch (ValidationException e) {
-            throw new RuntimeException("Error transforming entity: " + jsonNode, e);
+            throw new RuntimeException("Error transforming entity: " + json, e);
         }
         Document doc = new Document();
-        doc.add(new Field(OBJECT_FIELD_NAME, jsonNode.toString(), NON_INDEXED_TYPE));
+        doc.add(new Field(OBJECT_FIELD_NAME, json, NON_INDEXED_TYPE));
         Pair<Document, List<FacetField>> ret = new Pair<Document, List<FacetField>>();
         ret.setElement1(doc);
         Pair<List<IndexableField>, List<FacetField>> indexTerms = getIndexTerms(jsonNode);
@@ -90,6 +171,194 @@ public class JsonTransformer implements DocTransformer<JsonNode> {
         return ret;
     }
 
+    /**
+     * Transforms a POJO entity, given its JSON serialization, reading the
+     * index, facet and key values straight from its properties instead of from
+     * its parsed JSON representation. The entity is not validated against the
+     * JSON-Schema, that is expected to be generated from its class.
+     *
+     * @param entity
+     * @param json
+     * @return <code>null</code> if some value can not be read directly from
+     * the entity (unresolvable property or unexpected value type), so it has to
+     * be transformed through its JSON representation instead
+     */
+    Pair<Document, List<FacetField>> objectToDocument(Object entity, String json) {
+        final List<IndexableField> indexFields = new ArrayList<IndexableField>();
+        final List<FacetField> facets = new ArrayList<FacetField>();
+        List<Object> values = new ArrayList<Object>();
+        for (int i = 0; i < plans.size(); i++) {
+            FieldPlan plan = plans.get(i);
+            if (plan.entityPath == null) {
+                return null;
+            }
+            values.clear();
+            if (!plan.entityPath.collect(entity, values)) {
+                return null;
+            }
+            for (int j = 0; j < values.size(); j++) {
+                Object value = values.get(j);
+                if (plan.nodeSchema != null) {
+                    if (!addObjectIndexFields(plan, indexFields, value)) {
+                        return null;
+                    }
+                }
+                if (plan.facet && !addObjectFacets(plan.name, facets, value)) {
+                    return null;
+                }
+                if (plan.key) {
+                    if (!(value instanceof String || value instanceof Number)) {
+                        return null;
+                    }
+                    indexFields.add(new StringField(KEY_FIELD_NAME, toKeyString(value), Field.Store.NO));
+                }
+            }
+        }
+        Document doc = new Document();
+        doc.add(new Field(OBJECT_FIELD_NAME, json, NON_INDEXED_TYPE));
+        for (IndexableField field : indexFields) {
+            doc.add(field);
+        }
+        Pair<Document, List<FacetField>> ret = new Pair<Document, List<FacetField>>();
+        ret.setElement1(doc);
+        ret.setElement2(facets);
+        return ret;
+    }
+
+    private static boolean addObjectIndexFields(FieldPlan plan, List<IndexableField> list, Object value) {
+        if (value instanceof Map) {
+            // Index property key for object nodes
+            for (Object key : ((Map) value).keySet()) {
+                list.add(new StringField(plan.name, key.toString(), Field.Store.NO));
+            }
+            return true;
+        }
+        if (value instanceof Collection) {
+            for (Object element : (Collection) value) {
+                if (element != null && !addObjectIndexFields(plan, list, element)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (value.getClass().isArray()) {
+            for (int i = 0; i < Array.getLength(value); i++) {
+                Object element = Array.get(value, i);
+                if (element != null && !addObjectIndexFields(plan, list, element)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        Object scalar = toScalar(plan.type, value);
+        if (scalar == null) {
+            return false;
+        }
+        addIndexField(plan.name, plan.type, scalar, list);
+        if (plan.docValues) {
+            addDocValuesField(plan.name, SchemaImpl.isMultievaluated(plan.name), plan.type, scalar, list);
+        }
+        return true;
+    }
+
+    private static boolean addObjectFacets(String facetField, List<FacetField> list, Object value) {
+        if (value instanceof Map) {
+            for (Object key : ((Map) value).keySet()) {
+                list.add(new FacetField(facetField, key.toString()));
+            }
+            return true;
+        }
+        if (value instanceof Collection) {
+            for (Object element : (Collection) value) {
+                if (element != null && !addObjectFacets(facetField, list, element)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (value.getClass().isArray()) {
+            for (int i = 0; i < Array.getLength(value); i++) {
+                Object element = Array.get(value, i);
+                if (element != null && !addObjectFacets(facetField, list, element)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        Object scalar = toScalar(JsonNode.Type.STRING, value);
+        if (scalar == null) {
+            return false;
+        }
+        list.add(new FacetField(facetField, (String) scalar));
+        return true;
+    }
+
+    /**
+     * Converts a POJO value to the value its JSON serialization would give
+     * for the field type: a String for string and boolean fields, and a Number
+     * for numeric ones. Returns <code>null</code> for unexpected types.
+     */
+    private static Object toScalar(JsonNode.Type type, Object value) {
+        if (type == JsonNode.Type.STRING || type == JsonNode.Type.BOOLEAN) {
+            if (value instanceof String || value instanceof Boolean || value instanceof Character) {
+                return value.toString();
+            } else if (value instanceof Enum) {
+                return ((Enum) value).name();
+            }
+        } else if (type == JsonNode.Type.INTEGER) {
+            if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                return value;
+            }
+        } else if (type == JsonNode.Type.NUMBER) {
+            if (value instanceof Float) {
+                // As written in JSON, not widened
+                return Double.valueOf(value.toString());
+            } else if (value instanceof Number) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    private static void addIndexField(String indexField, JsonNode.Type type, Object scalar, List<IndexableField> list) {
+        if (type == JsonNode.Type.STRING || type == JsonNode.Type.BOOLEAN) {
+            list.add(new StringField(indexField, (String) scalar, Field.Store.NO));
+        } else if (type == JsonNode.Type.INTEGER) {
+            list.add(new LongField(indexField, ((Number) scalar).longValue(), Field.Store.NO));
+        } else if (type == JsonNode.Type.NUMBER) {
+            list.add(new DoubleField(indexField, ((Number) scalar).doubleValue(), Field.Store.NO));
+        } else {
+            throw new UnsupportedOperationException("Node type " + type + " not supported for index field " + indexField);
+        }
+    }
+
+    private static void addDocValuesField(String indexField, boolean multievaluated, JsonNode.Type type, Object scalar, List<IndexableField> list) {
+        if (type == JsonNode.Type.STRING || type == JsonNode.Type.BOOLEAN) {
+            BytesRef value = new BytesRef((String) scalar);
+            if (multievaluated) {
+                list.add(new SortedSetDocValuesField(indexField, value));
+            } else {
+                list.add(new SortedDocValuesField(indexField, value));
+            }
+        } else if (type == JsonNode.Type.INTEGER) {
+            long value = ((Number) scalar).longValue();
+            if (multievaluated) {
+                list.add(new SortedNumericDocValuesField(indexField, value));
+            } else {
+                list.add(new NumericDocValuesField(indexField, value));
+            }
+        } else if (type == JsonNode.Type.NUMBER) {
+            double value = ((Number) scalar).doubleValue();
+            if (multievaluated) {
+                list.add(new SortedNumericDocValuesField(indexField, NumericUtils.doubleToSortableLong(value)));
+            } else {
+                list.add(new DoubleDocValuesField(indexField, value));
+            }
+        } else {
+            throw new UnsupportedOperationException("Node type " + type + " not supported for DocValues field " + indexField);
+        }
+    }
+
     private Pair<List<IndexableField>, List<FacetField>> getIndexTerms(JsonNode jsonNode) {
         Pair<List<IndexableField>, List<FacetField>> ret = new Pair<List<IndexableField>, List<FacetField>>();
         final List<IndexableField> indexFields = new ArrayList<IndexableField>();
@@ -97,26 +366,94 @@ public class JsonTransformer implements DocTransformer<JsonNode> {
         final List<FacetField> facets = new ArrayList<FacetField>();
         ret.setElement2(facets);
 
-        Map<String, JsonNode.Type> fields = this.schema.getIndexFields();
-
-        for (Map.Entry<String, JsonNode.Type> entry : fields.entrySet()) {
-            String indexField = entry.getKey();
-            Expression exp = JsonCodec.getInstance().compile(indexField);
-            JsonNode projectedNode = exp.projectNode(jsonNode);
+        walk(pathTree, jsonNode, indexFields, facets);
+        for (int i = 0; i < projectedPlans.size(); i++) {
+            FieldPlan plan = projectedPlans.get(i);
+            JsonNode projectedNode = plan.exp.projectNode(jsonNode);
             if (projectedNode != null) {
-                addLuceneIndexFields(indexField, indexFields, projectedNode, exp.projectSchema(jsonSchema));
+                if (plan.nodeSchema != null) {
+                    addLuceneIndexFields(plan.name, indexFields, projectedNode, plan.nodeSchema);
+                    if (plan.docValues) {
+                        addLuceneDocValuesFields(plan.name, SchemaImpl.isMultievaluated(plan.name), indexFields, projectedNode, plan.nodeSchema);
+                    }
+                }
+                if (plan.facet) {
+                    addLuceneFacets(plan.name, facets, projectedNode);
+                }
+                if (plan.key) {
+                    indexFields.add(new StringField(KEY_FIELD_NAME, toKeyString(projectedNode), Field.Store.NO));
+                }
             }
         }
+        return ret;
+    }
 
-        Map<String, Boolean> facetFields = this.schema.getFacetFields();
-        for (String facetField : facetFields.keySet()) {
-            Expression exp = JsonCodec.getInstance().compile(facetField);
-            JsonNode projectedNode = exp.projectNode(jsonNode);
-            if (projectedNode != null) {
-                addLuceneFacets(facetField, facets, projectedNode);
+    /**
+     * Walks the record along the merged field paths, so that common prefixes
+     * are traversed once regardless of the number of fields under them.
+     */
+    private void walk(PathNode pathNode, JsonNode node, List<IndexableField> indexFields, List<FacetField> facets) {
+        if (node == null || node.getNodeType() == JsonNode.Type.NULL) {
+            return;
+        }
+        for (int i = 0; i < pathNode.plans.size(); i++) {
+            FieldPlan plan = pathNode.plans.get(i);
+            if (plan.nodeSchema != null) {
+                addNodeIndexFields(plan, indexFields, node);
+            }
+            if (plan.facet) {
+                addLuceneFacets(plan.name, facets, node);
+            }
+            if (plan.key) {
+                indexFields.add(new StringField(KEY_FIELD_NAME, toKeyString(node), Field.Store.NO));
             }
         }
-        return ret;
+        JsonNode.Type type = node.getNodeType();
+        if (type == JsonNode.Type.OBJECT) {
+            for (Map.Entry<String, PathNode> entry : pathNode.children.entrySet()) {
+                walk(entry.getValue(), node.get(entry.getKey()), indexFields, facets);
+            }
+            if (pathNode.mapChild != null) {
+                Iterator<String> properties = node.getProperties();
+                while (properties.hasNext()) {
+                    walk(pathNode.mapChild, node.get(properties.next()), indexFields, facets);
+                }
+            }
+        } else if (type == JsonNode.Type.ARRAY && pathNode.arrayChild != null) {
+            for (int i = 0; i < node.getSize(); i++) {
+                walk(pathNode.arrayChild, node.get(i), indexFields, facets);
+            }
+        }
+    }
+
+    private static void addNodeIndexFields(FieldPlan plan, List<IndexableField> list, JsonNode node) {
+        JsonNode.Type type = node.getNodeType();
+        if (type == JsonNode.Type.ARRAY) {
+            for (int i = 0; i < node.getSize(); i++) {
+                addNodeIndexFields(plan, list, node.get(i));
+            }
+        } else if (type == JsonNode.Type.OBJECT) {
+            Iterator<String> properties = node.getProperties();
+            while (properties.hasNext()) {
+                // Index property key for object nodes
+                list.add(new StringField(plan.name, properties.next(), Field.Store.NO));
+            }
+        } else if (type != JsonNode.Type.NULL) {
+            Object scalar = toScalar(plan.type, node);
+            addIndexField(plan.name, plan.type, scalar, list);
+            if (plan.docValues) {
+                addDocValuesField(plan.name, SchemaImpl.isMultievaluated(plan.name), plan.type, scalar, list);
+            }
+        }
+    }
+
+    private static Object toScalar(JsonNode.Type type, JsonNode node) {
+        if (type == JsonNode.Type.INTEGER) {
+            return node.asLong();
+        } else if (type == JsonNode.Type.NUMBER) {
+            return node.asDouble();
+        }
+        return node.asString();
     }
 
     private void addLuceneFacets(String facetField, List<FacetField> list, JsonNode node) {
@@ -153,20 +490,138 @@ public class JsonTransformer implements DocTransformer<JsonNode> {
                 // Index property key for object nodes
                 list.add(new StringField(indexField, propName, Field.Store.NO));
             }
-        } else if (type == JsonNode.Type.STRING) {
-            list.add(new StringField(indexField, node.asString(), Field.Store.NO));
-        } else if (type == JsonNode.Type.BOOLEAN) {
-            list.add(new StringField(indexField, node.asString(), Field.Store.NO));
-        } else if (type == JsonNode.Type.INTEGER) {
-            list.add(new LongField(indexField, node.asLong(), Field.Store.NO));
-        } else if (type == JsonNode.Type.NUMBER) {
-            list.add(new DoubleField(indexField, node.asDouble(), Field.Store.NO));
         } else {
-            throw new UnsupportedOperationException("Node type " + type + " not supported for index field " + indexField);
+            addIndexField(indexField, type, toScalar(type, node), list);
+        }
+    }
+
+    /**
+     * Single-valued fields are stored as Sorted/Numeric DocValues, usable by
+     * the sort FieldCache without uninversion. Multievaluated fields as
+     * SortedSet/SortedNumeric DocValues. Numbers are encoded as raw long bits
+     * in single-valued fields (as DoubleDocValuesField does) and as sortable
+     * longs in multievaluated ones.
+     */
+    private void addLuceneDocValuesFields(String indexField, boolean multievaluated, List<IndexableField> list, JsonNode node, JsonSchema nodeSchema) {
+        JsonNode.Type type = nodeSchema.getSchemaType();
+        if (type == JsonNode.Type.ARRAY) {
+            for (int i = 0; i < node.getSize(); i++) {
+                addLuceneDocValuesFields(indexField, multievaluated, list, node.get(i), nodeSchema.getItemSchema());
+            }
+        } else {
+            addDocValuesField(indexField, multievaluated, type, toScalar(type, node), list);
         }
     }
 
     public JsonNode documentToEntity(Document doc) {
-        return new LazyJsonNode(doc.get(OBJECT_FIELD_NAME));
+        return new LazyJsonNode(getJson(doc));
+    }
+
+    static String getJson(Document doc) {
+        return doc.get(OBJECT_FIELD_NAME);
+    }
+
+    /**
+     * Returns the key of the record represented by the document, or
+     * <code>null</code> if none.
+     *
+     * @param doc
+     * @return
+     */
+    static String getKey(Document doc) {
+        return doc.get(KEY_FIELD_NAME);
+    }
+
+    /**
+     * Returns the canonical string representation of a key value. Numbers are
+     * represented losslessly, with no trailing zeros, so that <code>2</code>
+     * and <code>2.0</code> give the same key, but <code>1.5</code> and
+     * <code>1.9</code> do not collide with <code>1</code>.
+     *
+     * @param key
+     * @return
+     */
+    static String toKeyString(Object key) {
+        if (key instanceof JsonNode) {
+            JsonNode node = (JsonNode) key;
+            if (node.getNodeType() == JsonNode.Type.INTEGER) {
+                return String.valueOf(node.asLong());
+            } else if (node.getNodeType() == JsonNode.Type.NUMBER) {
+                return toKeyString(node.asDouble());
+            }
+            return node.asString();
+        } else if (key instanceof Long || key instanceof Integer || key instanceof Short || key instanceof Byte) {
+            return String.valueOf(((Number) key).longValue());
+        } else if (key instanceof Number) {
+            try {
+                return new BigDecimal(key.toString()).stripTrailingZeros().toPlainString();
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Invalid numeric key: " + key, ex);
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Precompiled extraction plan of a schema field.
+     */
+    private static final class FieldPlan {
+
+        private final String name;
+        private final Expression exp;
+        // null for non-index fields
+        private final JsonSchema nodeSchema;
+        private final JsonNode.Type type;
+        private final EntityPath entityPath;
+        private boolean facet;
+        private boolean key;
+        private boolean docValues;
+
+        public FieldPlan(String name, Expression exp, JsonSchema nodeSchema, JsonNode.Type type) {
+            this.name = name;
+            this.exp = exp;
+            this.nodeSchema = nodeSchema;
+            this.type = type;
+            this.entityPath = EntityPath.compile(name);
+        }
+    }
+
+    /**
+     * Node of the tree resulting from merging the field paths step by step.
+     */
+    private static final class PathNode {
+
+        private final Map<String, PathNode> children = new LinkedHashMap<String, PathNode>();
+        private final List<FieldPlan> plans = new ArrayList<FieldPlan>();
+        private PathNode arrayChild;
+        private PathNode mapChild;
+
+        private void add(FieldPlan plan, int step) {
+            EntityPath path = plan.entityPath;
+            if (step == path.getSteps()) {
+                plans.add(plan);
+                return;
+            }
+            PathNode child;
+            String property = path.getProperty(step);
+            if (property != null) {
+                child = children.get(property);
+                if (child == null) {
+                    child = new PathNode();
+                    children.put(property, child);
+                }
+            } else if (path.isMapStep(step)) {
+                if (mapChild == null) {
+                    mapChild = new PathNode();
+                }
+                child = mapChild;
+            } else {
+                if (arrayChild == null) {
+                    arrayChild = new PathNode();
+                }
+                child = arrayChild;
+            }
+            child.add(plan, step + 1);
+        }
     }
 }
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.impl;
+
+import java.io.IOException;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.NumericUtils;
+import org.brutusin.json.spi.JsonNode;
+
+/**
+ * Base class of the aggregators of numeric fields, that feeds subclasses with
+ * the values read from the DocValues of the field, decoded as stored by
+ * {@link JsonTransformer}.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+abstract class NumericAggregator extends FieldAggregator {
+
+    private final boolean integer;
+    private final boolean multievaluated;
+
+    private NumericDocValues values;
+    private Bits docsWithField;
+    private SortedNumericDocValues multiValues;
+
+    NumericAggregator(String field, JsonNode.Type type) {
+        super(field);
+        this.integer = type == JsonNode.Type.INTEGER;
+        this.multievaluated = SchemaImpl.isMultievaluated(field);
+    }
+
+    final JsonNode.Type getType() {
+        return integer ? JsonNode.Type.INTEGER : JsonNode.Type.NUMBER;
+    }
+
+    @Override
+    final void setNextReader(AtomicReader reader) throws IOException {
+        if (multievaluated) {
+            this.multiValues = reader.getSortedNumericDocValues(getField());
+        } else {
+            this.values = reader.getNumericDocValues(getField());
+            this.docsWithField = reader.getDocsWithField(getField());
+        }
+    }
+
+    @Override
+    final void collect(int doc) {
+        if (multievaluated) {
+            if (multiValues == null) {
+                return;
+            }
+            multiValues.setDocument(doc);
+            for (int i = 0; i < multiValues.count(); i++) {
+                long value = multiValues.valueAt(i);
+                add(integer ? value : NumericUtils.sortableLongToDouble(value));
+            }
+        } else {
+            if (values == null || docsWithField == null || !docsWithField.get(doc)) {
+                return;
+            }
+            long value = values.get(doc);
+            add(integer ? value : Double.longBitsToDouble(value));
+        }
+    }
+
+    abstract void add(double value);
+}
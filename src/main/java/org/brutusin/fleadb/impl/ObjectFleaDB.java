@@ -17,17 +17,26 @@ package org.brutusin.fleadb.impl;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
-import org.brutusin.json.ParseException;
 import org.brutusin.json.spi.JsonCodec;
-import org.brutusin.json.spi.JsonNode;
+import org.brutusin.json.spi.JsonSchema;
+import org.brutusin.fleadb.aggregation.AggregationResponse;
+import org.brutusin.fleadb.aggregation.Aggregations;
+import org.brutusin.fleadb.bulk.BulkOptions;
+import org.brutusin.fleadb.facet.DrillSidewaysResponse;
+import org.brutusin.fleadb.facet.FacetCacheStats;
 import org.brutusin.fleadb.facet.FacetMultiplicities;
+import org.brutusin.fleadb.facet.FacetRanges;
 import org.brutusin.fleadb.facet.FacetResponse;
+import org.brutusin.fleadb.facet.FacetSampling;
+import org.brutusin.fleadb.facet.FacetSelections;
+import org.brutusin.fleadb.facet.FacetingMode;
 import org.brutusin.fleadb.FleaDB;
 import org.brutusin.fleadb.FleaDBInfo;
 import org.brutusin.fleadb.Schema;
+import org.brutusin.fleadb.pagination.ExportOptions;
 import org.brutusin.fleadb.pagination.Paginator;
+import org.brutusin.fleadb.pagination.RecordIterator;
 import org.brutusin.fleadb.query.Query;
 import org.brutusin.fleadb.sort.Sort;
 
@@ -40,7 +49,7 @@ import org.brutusin.fleadb.sort.Sort;
 public final class ObjectFleaDB<E> implements FleaDB<E> {
 
     private final GenericFleaDB genericFleaDB;
-    private final Class<E> clazz;
+    private final ObjectTransformer<E> transformer;
 
     /**
      * Creates an in-memory instance with a Schema determined by the specified
@@ -61,14 +70,74 @@ public final class ObjectFleaDB<E> implements FleaDB<E> {
      * @throws IOException
      */
     public ObjectFleaDB(File indexFolder, Class<E> clazz) throws IOException {
-        this.genericFleaDB = new GenericFleaDB(indexFolder, JsonCodec.getInstance().getSchema(clazz));
-        this.clazz = clazz;
+        this(indexFolder, clazz, JsonCodec.getInstance().getSchema(clazz));
+    }
+
+    /**
+     * Opens an existing persistent database or creates a new one, governed by
+     * the specified JSON-Schema instead of the one generated from the record
+     * class. Useful for schema extensions not supported by annotations, like
+     * declaring the record key (<code>"index":"id"</code>).
+     *
+     * @param indexFolder
+     * @param clazz
+     * @param jsonSchema schema compatible with the record class
+     * @throws IOException
+     */
+    public ObjectFleaDB(File indexFolder, Class<E> clazz, JsonSchema jsonSchema) throws IOException {
+        this(indexFolder, clazz, jsonSchema, null);
+    }
+
+    /**
+     * Opens an existing persistent database or creates a new one with the
+     * specified faceting mode.
+     *
+     * @param indexFolder
+     * @param clazz
+     * @param facetingMode
+     * @throws IOException
+     * @see GenericFleaDB#GenericFleaDB(File, JsonSchema, FacetingMode)
+     */
+    public ObjectFleaDB(File indexFolder, Class<E> clazz, FacetingMode facetingMode) throws IOException {
+        this(indexFolder, clazz, JsonCodec.getInstance().getSchema(clazz), facetingMode);
+    }
+
+    /**
+     * Opens an existing persistent database or creates a new one, governed by
+     * the specified JSON-Schema and faceting mode.
+     *
+     * @param indexFolder
+     * @param clazz
+     * @param jsonSchema schema compatible with the record class
+     * @param facetingMode
+     * @throws IOException
+     * @see GenericFleaDB#GenericFleaDB(File, JsonSchema, FacetingMode)
+     */
+    public ObjectFleaDB(File indexFolder, Class<E> clazz, JsonSchema jsonSchema, FacetingMode facetingMode) throws IOException {
+        this.genericFleaDB = new GenericFleaDB(indexFolder, jsonSchema, facetingMode);
+        this.transformer = new ObjectTransformer<E>(genericFleaDB.getTransformer(), clazz);
     }
 
     public File getIndexFolder() {
         return genericFleaDB.getIndexFolder();
     }
 
+    public FacetingMode getFacetingMode() {
+        return genericFleaDB.getFacetingMode();
+    }
+
+    public void setFacetCacheSize(int facetCacheSize) {
+        genericFleaDB.setFacetCacheSize(facetCacheSize);
+    }
+
+    public int getFacetCacheSize() {
+        return genericFleaDB.getFacetCacheSize();
+    }
+
+    public FacetCacheStats getFacetCacheStats() {
+        return genericFleaDB.getFacetCacheStats();
+    }
+
     protected final FleaDBInfo getFleaDBInfo() {
         return genericFleaDB.getFleaDBInfo();
     }
@@ -80,7 +149,12 @@ public final class ObjectFleaDB<E> implements FleaDB<E> {
 
     @Override
     public E getSingleResult(Query q) {
-        return JsonCodec.getInstance().load(genericFleaDB.getSingleResult(q), clazz);
+        return genericFleaDB.getSingleResult(q, transformer);
+    }
+
+    @Override
+    public E getById(Object key) {
+        return genericFleaDB.getById(key, transformer);
     }
 
     @Override
@@ -90,38 +164,22 @@ public final class ObjectFleaDB<E> implements FleaDB<E> {
 
     @Override
     public final Paginator<E> query(Query q, Sort sort) {
-        final Paginator<JsonNode> paginator = genericFleaDB.query(q, sort);
-        return new Paginator<E>() {
-            public int getTotalHits() {
-                return paginator.getTotalHits();
-            }
-
-            public int getTotalPages(int pageSize) {
-                return paginator.getTotalPages(pageSize);
-            }
-
-            public List<E> getPage(int pageNum, int pageSize) {
-                try {
-                    List<JsonNode> page = paginator.getPage(pageNum, pageSize);
-                    List<E> ret = new ArrayList(page.size());
-                    for (JsonNode jsonNode : page) {
-                        ret.add(JsonCodec.getInstance().parse(jsonNode.toString(), clazz));
-                    }
-                    return ret;
-                } catch (ParseException ex) {
-                    throw new RuntimeException();
-                }
-            }
-
-            public E getFirstElement() {
-                JsonNode firstElement = paginator.getFirstElement();
-                try {
-                    return JsonCodec.getInstance().parse(firstElement.toString(), clazz);
-                } catch (ParseException ex) {
-                    throw new RuntimeException();
-                }
-            }
-        };
+        return genericFleaDB.query(q, sort, transformer);
+    }
+
+    @Override
+    public final RecordIterator<E> iterator(Query q) {
+        return iterator(q, null, null);
+    }
+
+    @Override
+    public final RecordIterator<E> iterator(Query q, Sort sort) {
+        return iterator(q, sort, null);
+    }
+
+    @Override
+    public final RecordIterator<E> iterator(Query q, Sort sort, ExportOptions options) {
+        return genericFleaDB.iterator(q, sort, options, transformer);
     }
 
     @Override
@@ -134,11 +192,31 @@ public final class ObjectFleaDB<E> implements FleaDB<E> {
         return genericFleaDB.getFacetValues(q, facets);
     }
 
+    @Override
+    public final List<FacetResponse> getFacetValues(Query q, FacetMultiplicities facets, FacetSampling sampling) {
+        return genericFleaDB.getFacetValues(q, facets, sampling);
+    }
+
+    @Override
+    public final List<FacetResponse> getFacetValues(Query q, FacetMultiplicities facets, FacetRanges facetRanges, FacetSampling sampling) {
+        return genericFleaDB.getFacetValues(q, facets, facetRanges, sampling);
+    }
+
+    @Override
+    public final DrillSidewaysResponse<E> drillSideways(Query q, FacetSelections selections, FacetMultiplicities facetMultiplicities, Sort sort, int pageNum, int pageSize) {
+        return genericFleaDB.drillSideways(q, selections, facetMultiplicities, sort, pageNum, pageSize, transformer);
+    }
+
     @Override
     public int getNumFacetValues(Query q, String facetName) {
         return genericFleaDB.getNumFacetValues(q, facetName);
     }
 
+    @Override
+    public final AggregationResponse aggregate(Query q, Aggregations aggregations) {
+        return genericFleaDB.aggregate(q, aggregations);
+    }
+
     @Override
     public final List<FacetResponse> getFacetValuesStartingWith(String facetName, String prefix, Query q, int max) {
         return genericFleaDB.getFacetValuesStartingWith(facetName, prefix, q, max);
@@ -166,14 +244,46 @@ public final class ObjectFleaDB<E> implements FleaDB<E> {
 
     @Override
     public final void store(E entity) {
-        try {
-            genericFleaDB.store(JsonCodec.getInstance().parse(JsonCodec.getInstance().transform(entity)));
-        } catch (ParseException ex) {
-            throw new RuntimeException(ex);
-        }
+        genericFleaDB.store(transformer.entityToDocument(entity));
+    }
+
+    @Override
+    public final void upsert(E entity) {
+        genericFleaDB.upsert(transformer.entityToDocument(entity));
+    }
+
+    @Override
+    public final long storeAll(Iterable<E> entities) {
+        return storeAll(entities, null);
+    }
+
+    @Override
+    public final long storeAll(Iterable<E> entities, BulkOptions options) {
+        return genericFleaDB.storeAll(entities, options, transformer);
     }
 
     public void optimize() throws IOException {
         genericFleaDB.optimize();
     }
+
+    /**
+     * @param nearRealTime
+     * @param refreshMillis
+     * @see GenericFleaDB#setNearRealTime(boolean, long)
+     */
+    public void setNearRealTime(boolean nearRealTime, long refreshMillis) {
+        genericFleaDB.setNearRealTime(nearRealTime, refreshMillis);
+    }
+
+    public void refresh() {
+        genericFleaDB.refresh();
+    }
+
+    /**
+     * @param bloomFilteredKey
+     * @see GenericFleaDB#setBloomFilteredKey(boolean)
+     */
+    public void setBloomFilteredKey(boolean bloomFilteredKey) {
+        genericFleaDB.setBloomFilteredKey(bloomFilteredKey);
+    }
 }
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.impl;
+
+import java.util.List;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.facet.FacetField;
+import org.brutusin.commons.Pair;
+import org.brutusin.fleadb.DocTransformer;
+import org.brutusin.json.ParseException;
+import org.brutusin.json.spi.JsonCodec;
+import org.brutusin.json.spi.JsonNode;
+import org.brutusin.json.spi.JsonSchema;
+
+/**
+ * Strong-typed transformer. Stored records are bound directly from their
+ * stored JSON into instances of the record class.
+ * <p>
+ * On storing, records are serialized to JSON once, for the stored field, and
+ * their index, facet and key values are read straight from their properties
+ * by means of accessors cached per class. Records whose values can not be
+ * read that way, and databases governed by a JSON-Schema other than the one
+ * generated from the record class (hence requiring validation), fall back to
+ * extracting them from the parsed JSON.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ * @param <E>
+ */
+public final class ObjectTransformer<E> implements DocTransformer<E> {
+
+    private final JsonTransformer jsonTransformer;
+    private final Class<E> clazz;
+    private final boolean direct;
+
+    public ObjectTransformer(JsonTransformer jsonTransformer, Class<E> clazz) {
+        this.jsonTransformer = jsonTransformer;
+        this.clazz = clazz;
+        JsonSchema jsonSchema = jsonTransformer.getJsonSchema();
+        this.direct = jsonSchema != null && jsonSchema.equals(JsonCodec.getInstance().getSchema(clazz));
+    }
+
+    public Pair<Document, List<FacetField>> entityToDocument(E entity) {
+        if (entity == null) {
+            return null;
+        }
+        try {
+            String json = JsonCodec.getInstance().transform(entity);
+            if (direct) {
+                Pair<Document, List<FacetField>> ret = jsonTransformer.objectToDocument(entity, json);
+                if (ret != null) {
+                    return ret;
+                }
+            }
+            JsonNode jsonNode = JsonCodec.getInstance().parse(json);
+            return jsonTransformer.entityToDocument(jsonNode, json);
+        } catch (ParseException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    public E documentToEntity(Document doc) {
+        try {
+            return JsonCodec.getInstance().parse(JsonTransformer.getJson(doc), clazz);
+        } catch (ParseException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
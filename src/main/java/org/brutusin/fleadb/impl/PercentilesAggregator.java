@@ -0,0 +1,60 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.impl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.brutusin.fleadb.aggregation.Percentiles;
+import org.brutusin.json.spi.JsonNode;
+
+/**
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+final class PercentilesAggregator extends NumericAggregator {
+
+    private final double[] percents;
+    private final QuantileSketch sketch = new QuantileSketch(QuantileSketch.DEFAULT_RELATIVE_ACCURACY);
+
+    PercentilesAggregator(String field, JsonNode.Type type, double[] percents) {
+        super(field, type);
+        this.percents = percents;
+    }
+
+    @Override
+    void add(double value) {
+        sketch.add(value);
+    }
+
+    @Override
+    NumericAggregator emptyCopy() {
+        return new PercentilesAggregator(getField(), getType(), percents);
+    }
+
+    @Override
+    void merge(FieldAggregator other) {
+        sketch.merge(((PercentilesAggregator) other).sketch);
+    }
+
+    @Override
+    void addTo(AggregationResponseImpl response) {
+        Map<Double, Double> values = new LinkedHashMap<Double, Double>();
+        for (double percent : percents) {
+            values.put(percent, sketch.getQuantile(percent / 100));
+        }
+        response.getPercentiles().put(getField(), new Percentiles(getField(), sketch.getCount(), values));
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.impl;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import org.apache.lucene.facet.FacetsCollector;
+import org.apache.lucene.facet.FacetsConfig;
+import org.apache.lucene.facet.LabelAndValue;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesReaderState;
+import org.apache.lucene.facet.taxonomy.FacetLabel;
+import org.apache.lucene.facet.taxonomy.ParallelTaxonomyArrays;
+import org.apache.lucene.facet.taxonomy.TaxonomyReader;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.StringHelper;
+
+/**
+ * Counts the values of a flat facet starting with a given prefix. Only the
+ * ordinals of the matching values are counted, instead of counting and
+ * ranking all the values of the facet.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+final class PrefixFacetCounts {
+
+    /**
+     * Orders by descending count and then by label
+     */
+    static final Comparator<LabelAndValue> COMPARATOR = new Comparator<LabelAndValue>() {
+        @Override
+        public int compare(LabelAndValue o1, LabelAndValue o2) {
+            int ret = Integer.compare(o2.value.intValue(), o1.value.intValue());
+            if (ret == 0) {
+                ret = o1.label.compareTo(o2.label);
+            }
+            return ret;
+        }
+    };
+
+    private PrefixFacetCounts() {
+    }
+
+    /**
+     * Returns the values of the dimension starting with the prefix and
+     * having hits, using the label index of the taxonomy reader. The ordinals
+     * of each hit are decoded from the facet index field (as
+     * {@link org.apache.lucene.facet.taxonomy.FastTaxonomyFacetCounts} does),
+     * but only those of the matching labels are counted.
+     */
+    static List<LabelAndValue> countTaxonomy(String indexFieldName, LabelIndex labelIndex, String prefix, FacetsCollector fc) throws IOException {
+        int from = labelIndex.lowerBound(prefix);
+        int to = labelIndex.upperBound(prefix, from);
+        List<LabelAndValue> ret = new ArrayList<LabelAndValue>();
+        if (from == to) {
+            return ret;
+        }
+        int minOrd = Integer.MAX_VALUE;
+        int maxOrd = Integer.MIN_VALUE;
+        for (int i = from; i < to; i++) {
+            minOrd = Math.min(minOrd, labelIndex.ords[i]);
+            maxOrd = Math.max(maxOrd, labelIndex.ords[i]);
+        }
+        FixedBitSet prefixOrds = new FixedBitSet(maxOrd - minOrd + 1);
+        for (int i = from; i < to; i++) {
+            prefixOrds.set(labelIndex.ords[i] - minOrd);
+        }
+        int[] counts = new int[maxOrd - minOrd + 1];
+        for (FacetsCollector.MatchingDocs hits : fc.getMatchingDocs()) {
+            BinaryDocValues dv = hits.context.reader().getBinaryDocValues(indexFieldName);
+            if (dv == null) {
+                continue;
+            }
+            DocIdSetIterator it = hits.bits.iterator();
+            if (it == null) {
+                continue;
+            }
+            int doc;
+            while ((doc = it.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+                BytesRef bytesRef = dv.get(doc);
+                byte[] bytes = bytesRef.bytes;
+                int end = bytesRef.offset + bytesRef.length;
+                int ord = 0;
+                int prev = 0;
+                // Delta encoded vInts
+                for (int offset = bytesRef.offset; offset < end; offset++) {
+                    byte b = bytes[offset];
+                    if (b >= 0) {
+                        prev = ord = ((ord << 7) | b) + prev;
+                        if (ord >= minOrd && ord <= maxOrd && prefixOrds.get(ord - minOrd)) {
+                            counts[ord - minOrd]++;
+                        }
+                        ord = 0;
+                    } else {
+                        ord = (ord << 7) | (b & 0x7F);
+                    }
+                }
+            }
+        }
+        for (int i = from; i < to; i++) {
+            int count = counts[labelIndex.ords[i] - minOrd];
+            if (count > 0) {
+                ret.add(new LabelAndValue(labelIndex.labels[i], count));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the values of the dimension starting with the prefix and having
+     * hits. Matching values are a contiguous range of the global ordinals, so
+     * only ordinals in that range are counted.
+     */
+    static List<LabelAndValue> countSortedSet(SortedSetDocValuesReaderState state, String dim, String prefix, FacetsCollector fc) throws IOException {
+        List<LabelAndValue> ret = new ArrayList<LabelAndValue>();
+        SortedSetDocValuesReaderState.OrdRange ordRange = state.getOrdRange(dim);
+        if (ordRange == null) {
+            return ret;
+        }
+        SortedSetDocValues dv = state.getDocValues();
+        BytesRef fullPrefix = new BytesRef(FacetsConfig.pathToString(dim, new String[]{prefix}));
+        long from = dv.lookupTerm(fullPrefix);
+        if (from < 0) {
+            from = -from - 1;
+        }
+        from = Math.max(from, ordRange.start);
+        long to = from;
+        while (to <= ordRange.end && StringHelper.startsWith(dv.lookupOrd(to), fullPrefix)) {
+            to++;
+        }
+        if (from == to) {
+            return ret;
+        }
+        int[] counts = new int[(int) (to - from)];
+        for (FacetsCollector.MatchingDocs hits : fc.getMatchingDocs()) {
+            DocIdSetIterator it = hits.bits.iterator();
+            if (it == null) {
+                continue;
+            }
+            int doc;
+            while ((doc = it.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+                dv.setDocument(hits.context.docBase + doc);
+                long ord;
+                // Ordinals are returned in ascending order
+                while ((ord = dv.nextOrd()) != SortedSetDocValues.NO_MORE_ORDS && ord < to) {
+                    if (ord >= from) {
+                        counts[(int) (ord - from)]++;
+                    }
+                }
+            }
+        }
+        int labelOffset = dim.length() + 1;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                String label = dv.lookupOrd(from + i).utf8ToString().substring(labelOffset);
+                ret.add(new LabelAndValue(label, counts[i]));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Labels of the children of a taxonomy dimension, sorted for prefix
+     * lookups, and their ordinals. Immutable, valid for the taxonomy reader it
+     * was built from.
+     */
+    static final class LabelIndex {
+
+        private final String[] labels;
+        private final int[] ords;
+
+        private LabelIndex(String[] labels, int[] ords) {
+            this.labels = labels;
+            this.ords = ords;
+        }
+
+        static LabelIndex build(TaxonomyReader taxoReader, String dim) throws IOException {
+            int dimOrd = taxoReader.getOrdinal(new FacetLabel(dim));
+            if (dimOrd == TaxonomyReader.INVALID_ORDINAL) {
+                return new LabelIndex(new String[0], new int[0]);
+            }
+            ParallelTaxonomyArrays arrays = taxoReader.getParallelTaxonomyArrays();
+            int[] children = arrays.children();
+            int[] siblings = arrays.siblings();
+            final List<String> labelList = new ArrayList<String>();
+            List<Integer> ordList = new ArrayList<Integer>();
+            for (int ord = children[dimOrd]; ord != TaxonomyReader.INVALID_ORDINAL; ord = siblings[ord]) {
+                labelList.add(taxoReader.getPath(ord).components[1]);
+                ordList.add(ord);
+            }
+            Integer[] indexes = new Integer[labelList.size()];
+            for (int i = 0; i < indexes.length; i++) {
+                indexes[i] = i;
+            }
+            Arrays.sort(indexes, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer o1, Integer o2) {
+                    return labelList.get(o1).compareTo(labelList.get(o2));
+                }
+            });
+            String[] labels = new String[indexes.length];
+            int[] ords = new int[indexes.length];
+            for (int i = 0; i < indexes.length; i++) {
+                labels[i] = labelList.get(indexes[i]);
+                ords[i] = ordList.get(indexes[i]);
+            }
+            return new LabelIndex(labels, ords);
+        }
+
+        private int lowerBound(String prefix) {
+            int pos = Arrays.binarySearch(labels, prefix);
+            return pos < 0 ? -pos - 1 : pos;
+        }
+
+        private int upperBound(String prefix, int from) {
+            int to = from;
+            while (to < labels.length && labels[to].startsWith(prefix)) {
+                to++;
+            }
+            return to;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.impl;
+
+/**
+ * Mergeable quantile sketch with relative accuracy guarantees. Values are
+ * counted in buckets of logarithmically increasing width, so that any
+ * estimated quantile is within a relative error <code>accuracy</code> of the
+ * true one, and memory only depends on the range of magnitudes of the values
+ * (not on their number). Sketches with the same accuracy are merged by adding
+ * their bucket counts, so merging is exact.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+final class QuantileSketch {
+
+    static final double DEFAULT_RELATIVE_ACCURACY = 0.01;
+
+    private final double accuracy;
+    private final double gamma;
+    private final double multiplier;
+
+    private final Store positives = new Store();
+    private final Store negatives = new Store();
+    private long zeroCount;
+    private long count;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    QuantileSketch(double accuracy) {
+        if (!(accuracy > 0 && accuracy < 1)) {
+            throw new IllegalArgumentException("Accuracy must be in the (0, 1) range");
+        }
+        this.accuracy = accuracy;
+        this.gamma = (1 + accuracy) / (1 - accuracy);
+        this.multiplier = 1 / Math.log(gamma);
+    }
+
+    void add(double value) {
+        if (value > Double.MIN_NORMAL) {
+            positives.add(index(value), 1);
+        } else if (value < -Double.MIN_NORMAL) {
+            negatives.add(index(-value), 1);
+        } else {
+            zeroCount++;
+        }
+        count++;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    void merge(QuantileSketch other) {
+        if (other.accuracy != accuracy) {
+            throw new IllegalArgumentException("Sketches of different accuracy can not be merged");
+        }
+        positives.merge(other.positives);
+        negatives.merge(other.negatives);
+        zeroCount += other.zeroCount;
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the estimated value at the quantile, or <code>NaN</code> if the
+     * sketch is empty.
+     *
+     * @param quantile in the [0, 1] range
+     * @return
+     */
+    double getQuantile(double quantile) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        if (quantile <= 0) {
+            return min;
+        }
+        if (quantile >= 1) {
+            return max;
+        }
+        long rank = (long) (quantile * (count - 1));
+        long seen = 0;
+        // Negative values, from the greatest magnitude to the lowest
+        int i = negatives.lastIndex();
+        while (i >= negatives.firstIndex()) {
+            seen += negatives.get(i);
+            if (seen > rank) {
+                return clamp(-value(i));
+            }
+            i--;
+        }
+        seen += zeroCount;
+        if (seen > rank) {
+            return clamp(0);
+        }
+        i = positives.firstIndex();
+        while (i <= positives.lastIndex()) {
+            seen += positives.get(i);
+            if (seen > rank) {
+                return clamp(value(i));
+            }
+            i++;
+        }
+        return max;
+    }
+
+    private double clamp(double value) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    private int index(double value) {
+        return (int) Math.ceil(Math.log(value) * multiplier);
+    }
+
+    /**
+     * Value of the bucket with minimal relative error to any value in
+     * <code>(gamma^(index-1), gamma^index]</code>.
+     */
+    private double value(int index) {
+        return 2 * Math.pow(gamma, index) / (gamma + 1);
+    }
+
+    /**
+     * Dense bucket counts over a growing window of indexes.
+     */
+    private static final class Store {
+
+        private long[] counts;
+        private int offset;
+
+        void add(int index, long count) {
+            if (counts == null) {
+                counts = new long[16];
+                offset = index - 8;
+            } else if (index < offset || index >= offset + counts.length) {
+                int first = Math.min(offset, index);
+                int last = Math.max(offset + counts.length - 1, index);
+                // Grow with some margin to amortize successive extensions
+                int length = Math.max(last - first + 1, 2 * counts.length);
+                int newOffset = index < offset ? last - length + 1 : first;
+                long[] newCounts = new long[length];
+                System.arraycopy(counts, 0, newCounts, offset - newOffset, counts.length);
+                counts = newCounts;
+                offset = newOffset;
+            }
+            counts[index - offset] += count;
+        }
+
+        void merge(Store other) {
+            if (other.counts == null) {
+                return;
+            }
+            for (int i = 0; i < other.counts.length; i++) {
+                if (other.counts[i] > 0) {
+                    add(other.offset + i, other.counts[i]);
+                }
+            }
+        }
+
+        long get(int index) {
+            return counts[index - offset];
+        }
+
+        int firstIndex() {
+            return counts == null ? 0 : offset;
+        }
+
+        int lastIndex() {
+            return counts == null ? -1 : offset + counts.length - 1;
+        }
+    }
+}
@@ -15,9 +15,12 @@
  */
 package org.brutusin.fleadb.impl;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import org.brutusin.json.ParseException;
@@ -27,6 +30,7 @@ import org.brutusin.json.spi.JsonSchema;
 import org.brutusin.json.util.JsonNodeVisitor;
 import org.brutusin.json.util.JsonSchemaUtils;
 import org.brutusin.fleadb.Schema;
+import org.brutusin.fleadb.facet.FacetRange;
 
 /**
  * Schema implementation.
@@ -35,9 +39,27 @@ import org.brutusin.fleadb.Schema;
  */
 public final class SchemaImpl implements Schema {
 
+    /**
+     * Value of the <code>index</code> schema property declaring the record key
+     */
+    public static final String KEY_INDEX_MODE = "id";
+    /**
+     * Boolean schema property enabling column-stride storage (DocValues) of an
+     * indexed scalar property
+     */
+    public static final String DOC_VALUES_PROPERTY = "docValues";
+    /**
+     * Array schema property declaring the default ranges of a numeric facet,
+     * like <code>[{"label":"cheap","max":10},{"min":10}]</code>
+     */
+    public static final String RANGES_PROPERTY = "ranges";
+
     private final JsonSchema jsonSchema;
+    private String keyField;
     private Map<String, JsonNode.Type> indexFields;
     private Map<String, Boolean> facetFields;
+    private Set<String> docValuesFields;
+    private Map<String, List<FacetRange>> rangeFacetFields;
 
     public SchemaImpl(JsonSchema jsonSchema) throws ParseException {
         this.jsonSchema = jsonSchema;
@@ -47,15 +69,41 @@ public final class SchemaImpl implements Schema {
      private void initFields() {
         this.indexFields = new LinkedHashMap();
         this.facetFields = new LinkedHashMap();
+        this.docValuesFields = new LinkedHashSet();
+        this.rangeFacetFields = new LinkedHashMap();
 
         accept(jsonSchema, new JsonNodeVisitor() {
 
             private void add(String name, JsonNode.Type type, IndexableProperty.IndexMode mode) {
                 SchemaImpl.this.indexFields.put(name, type);
                 if (mode == IndexableProperty.IndexMode.facet) {
-                    boolean multievaluated = name.contains("[*]") || name.contains("[#]");
-                    SchemaImpl.this.facetFields.put(name, multievaluated);
+                    if (type == JsonNode.Type.INTEGER || type == JsonNode.Type.NUMBER) {
+                        if (isMultievaluated(name)) {
+                            throw new IllegalArgumentException("Range facets not supported for multievaluated field " + name);
+                        }
+                        throw new IllegalArgumentException("Numeric field " + name + " can only be declared as a range facet");
+                    }
+                    SchemaImpl.this.facetFields.put(name, isMultievaluated(name));
+                }
+            }
+
+            /**
+             * Numeric facets are counted by ranges over their DocValues
+             */
+            private void addRangeFacet(String name, JsonNode.Type type, JsonNode rangesNode) {
+                if (isMultievaluated(name)) {
+                    throw new IllegalArgumentException("Range facets not supported for multievaluated field " + name);
+                }
+                SchemaImpl.this.indexFields.put(name, type);
+                SchemaImpl.this.docValuesFields.add(name);
+                SchemaImpl.this.rangeFacetFields.put(name, parseRanges(name, type, rangesNode));
+            }
+
+            private void addDocValues(String name, JsonNode.Type type) {
+                if (type != JsonNode.Type.STRING && type != JsonNode.Type.BOOLEAN && type != JsonNode.Type.INTEGER && type != JsonNode.Type.NUMBER) {
+                    throw new IllegalArgumentException("DocValues not supported for field " + name + " of type " + type);
                 }
+                SchemaImpl.this.docValuesFields.add(name);
             }
 
             private void add(String name, JsonNode.Type type, IndexableProperty.IndexMode mode, boolean multievaluated) {
@@ -69,9 +117,34 @@ public final class SchemaImpl implements Schema {
             public void visit(String name, JsonNode schema) {
                 JsonNode indexProperty = schema.get("index");
                 if (indexProperty != null) {
-                    final IndexableProperty.IndexMode mode = IndexableProperty.IndexMode.valueOf(indexProperty.asString());
                     JsonNode.Type type = JsonNode.Type.valueOf(schema.get("type").asString().toUpperCase());
+                    JsonNode docValuesProperty = schema.get(DOC_VALUES_PROPERTY);
+                    boolean docValues = docValuesProperty != null && "true".equals(docValuesProperty.asString());
+                    if (schema.get(RANGES_PROPERTY) != null && !(IndexableProperty.IndexMode.facet.name().equals(indexProperty.asString()) && (type == JsonNode.Type.INTEGER || type == JsonNode.Type.NUMBER))) {
+                        throw new IllegalArgumentException("Property '" + RANGES_PROPERTY + "' of field " + name + " is only supported in numeric facet fields. Found in a field of type " + type + " and index mode " + indexProperty.asString());
+                    }
+                    if (KEY_INDEX_MODE.equals(indexProperty.asString())) {
+                        if (type != JsonNode.Type.STRING && type != JsonNode.Type.INTEGER) {
+                            throw new IllegalArgumentException("Key field " + name + " must be of type string or integer. Found: " + type);
+                        }
+                        if (isMultievaluated(name)) {
+                            throw new IllegalArgumentException("Key field " + name + " can not be multievaluated");
+                        }
+                        if (SchemaImpl.this.keyField != null) {
+                            throw new IllegalArgumentException("Only one key field allowed. Found: " + SchemaImpl.this.keyField + " and " + name);
+                        }
+                        SchemaImpl.this.keyField = name;
+                        add(name, type, IndexableProperty.IndexMode.index);
+                        if (docValues) {
+                            addDocValues(name, type);
+                        }
+                        return;
+                    }
+                    final IndexableProperty.IndexMode mode = IndexableProperty.IndexMode.valueOf(indexProperty.asString());
                     if (type == JsonNode.Type.OBJECT) {
+                        if (docValues) {
+                            throw new IllegalArgumentException("DocValues not supported for object field " + name);
+                        }
                         JsonNode.Type valueType = JsonSchemaUtils.getMapValueType(schema);
                         if (valueType != null) {
                             if (valueType != JsonNode.Type.OBJECT) {
@@ -85,9 +158,17 @@ public final class SchemaImpl implements Schema {
                         JsonNode.Type valueType = JsonSchemaUtils.getArrayValueType(schema);
                         if (valueType != null) {
                             add(name + "[#]", valueType, mode);
+                            if (docValues) {
+                                addDocValues(name + "[#]", valueType);
+                            }
                         }
+                    } else if (mode == IndexableProperty.IndexMode.facet && (type == JsonNode.Type.INTEGER || type == JsonNode.Type.NUMBER)) {
+                        addRangeFacet(name, type, schema.get(RANGES_PROPERTY));
                     } else {
                         add(name, type, mode);
+                        if (docValues) {
+                            addDocValues(name, type);
+                        }
                     }
                 }
             }
@@ -121,10 +202,78 @@ public final class SchemaImpl implements Schema {
        return facetFields;
     }
     
+    @Override
+    public Map<String, List<FacetRange>> getRangeFacetFields() {
+        return rangeFacetFields;
+    }
+
+    @Override
+    public String getKeyField() {
+        return keyField;
+    }
+
+    @Override
+    public Set<String> getDocValuesFields() {
+        return docValuesFields;
+    }
+
+    /**
+     * Returns if the field can hold more than one value per record, that is,
+     * if its name contains array (<code>[#]</code>) or map
+     * (<code>[*]</code>) tokens.
+     *
+     * @param fieldName
+     * @return
+     */
+    public static boolean isMultievaluated(String fieldName) {
+        return fieldName.contains("[*]") || fieldName.contains("[#]");
+    }
+
     public void setFacetFields(Map<String, Boolean> facetFields) {
         this.facetFields = facetFields;
     }
     
+    private static List<FacetRange> parseRanges(String name, JsonNode.Type type, JsonNode rangesNode) {
+        if (rangesNode == null) {
+            return Collections.emptyList();
+        }
+        if (rangesNode.getNodeType() != JsonNode.Type.ARRAY) {
+            throw new IllegalArgumentException("Property '" + RANGES_PROPERTY + "' of field " + name + " must be an array");
+        }
+        List<FacetRange> ret = new ArrayList<FacetRange>(rangesNode.getSize());
+        for (int i = 0; i < rangesNode.getSize(); i++) {
+            JsonNode rangeNode = rangesNode.get(i);
+            if (rangeNode.getNodeType() != JsonNode.Type.OBJECT) {
+                throw new IllegalArgumentException("Ranges of field " + name + " must be objects");
+            }
+            JsonNode labelNode = rangeNode.get("label");
+            Number min = toNumber(name, type, rangeNode.get("min"));
+            Number max = toNumber(name, type, rangeNode.get("max"));
+            if (min != null && max != null && min.doubleValue() >= max.doubleValue()) {
+                throw new IllegalArgumentException("Range min (" + min + ") must be lower than max (" + max + ") in field " + name);
+            }
+            ret.add(FacetRange.create(labelNode == null ? null : labelNode.asString(), min, max));
+        }
+        return Collections.unmodifiableList(ret);
+    }
+
+    private static Number toNumber(String name, JsonNode.Type type, JsonNode node) {
+        if (node == null || node.getNodeType() == JsonNode.Type.NULL) {
+            return null;
+        }
+        JsonNode.Type nodeType = node.getNodeType();
+        if (type == JsonNode.Type.INTEGER) {
+            if (nodeType != JsonNode.Type.INTEGER) {
+                throw new IllegalArgumentException("Range bounds of integer field " + name + " must be integers. Found: " + node);
+            }
+            return node.asLong();
+        }
+        if (nodeType != JsonNode.Type.INTEGER && nodeType != JsonNode.Type.NUMBER) {
+            throw new IllegalArgumentException("Range bounds of field " + name + " must be numbers. Found: " + node);
+        }
+        return node.asDouble();
+    }
+
     private static void addParentMapNamesToList(String name, Set<String> set) {
         String[] tokens = name.split("\\[\\*\\]");
         if (tokens == null || tokens.length == 0) {
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.impl;
+
+import org.brutusin.fleadb.aggregation.FieldStats;
+import org.brutusin.json.spi.JsonNode;
+
+/**
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+final class StatsAggregator extends NumericAggregator {
+
+    private long count;
+    private double sum;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    StatsAggregator(String field, JsonNode.Type type) {
+        super(field, type);
+    }
+
+    @Override
+    void add(double value) {
+        count++;
+        sum += value;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    @Override
+    NumericAggregator emptyCopy() {
+        return new StatsAggregator(getField(), getType());
+    }
+
+    @Override
+    void merge(FieldAggregator other) {
+        StatsAggregator o = (StatsAggregator) other;
+        count += o.count;
+        sum += o.sum;
+        min = Math.min(min, o.min);
+        max = Math.max(max, o.max);
+    }
+
+    @Override
+    void addTo(AggregationResponseImpl response) {
+        FieldStats stats;
+        if (count == 0) {
+            stats = new FieldStats(getField(), 0, 0, Double.NaN, Double.NaN);
+        } else {
+            stats = new FieldStats(getField(), count, sum, min, max);
+        }
+        response.getStats().put(getField(), stats);
+    }
+}
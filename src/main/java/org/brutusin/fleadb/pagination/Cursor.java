@@ -0,0 +1,80 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.pagination;
+
+import java.io.Serializable;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Opaque and serializable pointer to the last record of a page. Passed back to
+ * {@link Paginator#getPage(Cursor, int)} it allows to retrieve the following
+ * page with a single search, regardless of its depth.
+ * <p>
+ * Cursors are only valid for the paginator query and sort they were obtained
+ * from, and for the index version they were created on. Once the index has
+ * changed (due to a commit or a near-real-time refresh) document ids are no
+ * longer comparable, so the paginator rejects the cursor with an
+ * {@link IllegalArgumentException} and pagination has to be restarted.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public final class Cursor implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long readerVersion;
+    private final int doc;
+    private final int shardIndex;
+    private final Object[] values;
+
+    Cursor(long readerVersion, FieldDoc fieldDoc) {
+        this.readerVersion = readerVersion;
+        this.doc = fieldDoc.doc;
+        this.shardIndex = fieldDoc.shardIndex;
+        this.values = new Object[fieldDoc.fields.length];
+        for (int i = 0; i < values.length; i++) {
+            Object value = fieldDoc.fields[i];
+            if (value instanceof BytesRef) {
+                // BytesRef is not serializable
+                values[i] = BytesRef.deepCopyOf((BytesRef) value).bytes;
+            } else {
+                values[i] = value;
+            }
+        }
+    }
+
+    public long getReaderVersion() {
+        return readerVersion;
+    }
+
+    int getNumValues() {
+        return values.length;
+    }
+
+    FieldDoc toFieldDoc() {
+        Object[] fields = new Object[values.length];
+        for (int i = 0; i < values.length; i++) {
+            Object value = values[i];
+            if (value instanceof byte[]) {
+                fields[i] = new BytesRef((byte[]) value);
+            } else {
+                fields[i] = value;
+            }
+        }
+        return new FieldDoc(doc, Float.NaN, fields, shardIndex);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.pagination;
+
+import java.io.File;
+
+/**
+ * Sorted export settings. Instances of this class are not thread safe.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public final class ExportOptions {
+
+    private double maxMemoryMB = 64;
+    private File tempFolder;
+    private int maxMergeFanIn = 64;
+
+    private ExportOptions() {
+    }
+
+    public static ExportOptions create() {
+        return new ExportOptions();
+    }
+
+    /**
+     * Approximate heap size of the sort keys held in memory, in MB. Once
+     * exceeded, keys are sorted and spilled to a run file. Defaults to 64.
+     *
+     * @param maxMemoryMB
+     * @return
+     */
+    public ExportOptions maxMemoryMB(double maxMemoryMB) {
+        if (!(maxMemoryMB > 0)) {
+            throw new IllegalArgumentException("Max memory must be greater than 0");
+        }
+        this.maxMemoryMB = maxMemoryMB;
+        return this;
+    }
+
+    /**
+     * Folder where run files are written. Defaults to the
+     * <code>java.io.tmpdir</code> system folder.
+     *
+     * @param tempFolder
+     * @return
+     */
+    public ExportOptions tempFolder(File tempFolder) {
+        this.tempFolder = tempFolder;
+        return this;
+    }
+
+    /**
+     * Maximum number of run files merged at once, bounding the number of open
+     * files and read buffers. If more runs are spilled, they are merged in
+     * groups into intermediate runs first. Defaults to 64.
+     *
+     * @param maxMergeFanIn
+     * @return
+     */
+    public ExportOptions maxMergeFanIn(int maxMergeFanIn) {
+        if (maxMergeFanIn < 2) {
+            throw new IllegalArgumentException("Max merge fan-in must be greater than 1");
+        }
+        this.maxMergeFanIn = maxMergeFanIn;
+        return this;
+    }
+
+    public double getMaxMemoryMB() {
+        return maxMemoryMB;
+    }
+
+    public File getTempFolder() {
+        return tempFolder;
+    }
+
+    public int getMaxMergeFanIn() {
+        return maxMergeFanIn;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.pagination;
+
+import java.util.List;
+
+/**
+ * Page of records retrieved by cursor.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ * @param <E>
+ */
+public final class Page<E> {
+
+    private final List<E> elements;
+    private final Cursor cursor;
+
+    public Page(List<E> elements, Cursor cursor) {
+        this.elements = elements;
+        this.cursor = cursor;
+    }
+
+    public List<E> getElements() {
+        return elements;
+    }
+
+    /**
+     * Returns the cursor pointing to the last element of this page, to be used
+     * for retrieving the next one, or <code>null</code> if this is the last
+     * page.
+     *
+     * @return
+     */
+    public Cursor getCursor() {
+        return cursor;
+    }
+
+    public boolean hasNext() {
+        return cursor != null;
+    }
+}
@@ -29,6 +29,27 @@ public interface Paginator<E> {
 
     public List<E> getPage(int pageNum, int pageSize);
 
+    /**
+     * Returns the page following the record pointed by the cursor, or the first
+     * page if cursor is <code>null</code>. Costs a single search no matter the
+     * page depth.
+     *
+     * @param cursor
+     * @param pageSize
+     * @return
+     */
+    public Page<E> getPage(Cursor cursor, int pageSize);
+
+    /**
+     * Returns the page following the last one returned by this paginator via
+     * cursor, or the first page if none has been returned yet. Once the last
+     * page has been returned, empty pages (with no cursor) are returned.
+     *
+     * @param pageSize
+     * @return
+     */
+    public Page<E> nextPage(int pageSize);
+
     public E getFirstElement();
 
 }
@@ -17,15 +17,22 @@ package org.brutusin.fleadb.pagination;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Collector;
 import org.apache.lucene.search.FieldDoc;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.TopDocsCollector;
 import org.apache.lucene.search.TopFieldCollector;
+import org.apache.lucene.search.TotalHitCountCollector;
 import org.brutusin.fleadb.DocTransformer;
 
 /**
@@ -34,18 +41,28 @@ import org.brutusin.fleadb.DocTransformer;
  */
 public class PaginatorImpl<E> implements Paginator<E> {
 
-    private final IndexSearcher searcher;
+    private final SearcherSource searcherSource;
     private final Query q;
     private final Sort sort;
     private final DocTransformer<E> transformer;
 
     private Integer totalHits;
 
-    public PaginatorImpl(IndexSearcher searcher, DocTransformer<E> transformer, Query q, Sort sort) {
+    // Last page retrieved by number, to avoid re-walking previous pages in sequential access
+    private int lastPageNum;
+    private int lastPageSize;
+    private long lastPageVersion;
+    private TopDocs lastPageTopDocs;
+
+    private Cursor lastCursor;
+    // Last page returned by cursor had no next page
+    private boolean exhausted;
+
+    public PaginatorImpl(SearcherSource searcherSource, DocTransformer<E> transformer, Query q, Sort sort) {
         if (sort == null) {
             sort = Sort.INDEXORDER;
         }
-        this.searcher = searcher;
+        this.searcherSource = searcherSource;
         this.q = q;
         this.sort = sort;
         this.transformer = transformer;
@@ -55,13 +72,47 @@ public class PaginatorImpl<E> implements Paginator<E> {
         return getPage(1, 1).get(0);
     }
 
-    public int getTotalHits() {
+    /**
+     * Returns the single element matching the query, in a single search that
+     * stops as soon as a second hit is found.
+     *
+     * @return
+     * @throws IllegalArgumentException if the query returns no results or
+     * more than one
+     */
+    public E getSingleElement() {
+        try {
+            IndexSearcher searcher = searcherSource.acquire();
+            try {
+                SingleHitCollector collector = new SingleHitCollector();
+                try {
+                    searcher.search(this.q, collector);
+                } catch (SingleHitCollector.SecondHitException ex) {
+                    throw new IllegalArgumentException("Query returned more than 1 results");
+                }
+                if (collector.getDoc() < 0) {
+                    throw new IllegalArgumentException("Query returned no results");
+                }
+                return this.transformer.documentToEntity(searcher.doc(collector.getDoc()));
+            } finally {
+                searcherSource.release(searcher);
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    public synchronized int getTotalHits() {
         if (totalHits == null) {
             try {
-                TopDocsCollector documentCollector = TopFieldCollector.create(
-                        this.sort, 1, null, false, false, false, false);
-                searcher.search(this.q, documentCollector);
-                this.totalHits = documentCollector.getTotalHits();
+                IndexSearcher searcher = searcherSource.acquire();
+                try {
+                    TotalHitCountCollector countCollector = new TotalHitCountCollector();
+                    searcher.search(this.q, countCollector);
+                    this.totalHits = countCollector.getTotalHits();
+                } finally {
+                    searcherSource.release(searcher);
+                }
             } catch (IOException ex) {
                 throw new RuntimeException(ex);
             }
@@ -73,48 +124,144 @@ public class PaginatorImpl<E> implements Paginator<E> {
         return (int) getTotalPages(pageSize, getTotalHits());
     }
 
-    public List<E> getPage(int pageNum, int pageSize) {
+    /**
+     * Total hits are collected in the same pass as the requested page, so no
+     * additional count search is performed if they are not known yet.
+     */
+    public synchronized List<E> getPage(int pageNum, int pageSize) {
         if (pageNum < 1) {
             throw new IllegalArgumentException("pageNum must be greater than 0");
         }
-        if (pageNum > getTotalPages(pageSize)) {
+        if (this.totalHits != null) {
+            validatePageNum(pageNum, pageSize);
+        }
+        try {
+            IndexSearcher searcher = searcherSource.acquire();
+            try {
+                long version = getReaderVersion(searcher);
+                boolean cacheUsable = lastPageTopDocs != null && lastPageVersion == version && lastPageSize == pageSize;
+                if (cacheUsable && lastPageNum == pageNum) {
+                    return toEntities(searcher, lastPageTopDocs, lastPageTopDocs.scoreDocs.length);
+                }
+                int page = 1;
+                FieldDoc memento = null;
+                if (cacheUsable && lastPageNum < pageNum && lastPageTopDocs.scoreDocs.length > 0) {
+                    page = lastPageNum + 1;
+                    memento = (FieldDoc) lastPageTopDocs.scoreDocs[lastPageTopDocs.scoreDocs.length - 1];
+                }
+                TopDocs topDocs = null;
+                while (page <= pageNum) {
+                    if (topDocs != null) {
+                        memento = (FieldDoc) topDocs.scoreDocs[topDocs.scoreDocs.length - 1];
+                    }
+                    topDocs = queryDocuments(searcher, pageSize, memento);
+                    this.totalHits = topDocs.totalHits;
+                    validatePageNum(pageNum, pageSize);
+                    page++;
+                }
+                this.lastPageNum = pageNum;
+                this.lastPageSize = pageSize;
+                this.lastPageVersion = version;
+                this.lastPageTopDocs = topDocs;
+                return toEntities(searcher, topDocs, topDocs.scoreDocs.length);
+            } finally {
+                searcherSource.release(searcher);
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private void validatePageNum(int pageNum, int pageSize) {
+        if (pageNum > getTotalPages(pageSize, this.totalHits)) {
             throw new IllegalArgumentException("pageNum (" + pageNum + ") exceeds pageSize (" + pageSize + ")");
         }
-        int page = 1;
-        TopDocs topDocs = null;
+    }
+
+    /**
+     * Synchronized, like {@link #getPage(int, int)}, since both update the
+     * paginator state (total hits and last cursor).
+     *
+     * @throws IllegalArgumentException if the cursor does not belong to the
+     * paginator sort, or was created on a different index version
+     */
+    public synchronized Page<E> getPage(Cursor cursor, int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be greater than 0");
+        }
+        FieldDoc memento = null;
+        if (cursor != null) {
+            if (cursor.getNumValues() != this.sort.getSort().length) {
+                throw new IllegalArgumentException("Cursor does not belong to current sort");
+            }
+            memento = cursor.toFieldDoc();
+        }
         try {
-            while (page <= pageNum) {
-                FieldDoc memento;
-                if (topDocs == null) {
-                    memento = null;
+            IndexSearcher searcher = searcherSource.acquire();
+            try {
+                long version = getReaderVersion(searcher);
+                if (cursor != null && cursor.getReaderVersion() != version) {
+                    throw new IllegalArgumentException("Cursor was created on index version " + cursor.getReaderVersion() + " but current version is " + version + ". Restart pagination from the first page");
+                }
+                // An extra hit is retrieved to determine if a next page exists
+                TopDocs topDocs = queryDocuments(searcher, pageSize + 1, memento);
+                this.totalHits = topDocs.totalHits;
+                int size = Math.min(pageSize, topDocs.scoreDocs.length);
+                Cursor nextCursor;
+                if (topDocs.scoreDocs.length > pageSize) {
+                    nextCursor = new Cursor(version, (FieldDoc) topDocs.scoreDocs[size - 1]);
                 } else {
-                    memento = (FieldDoc) topDocs.scoreDocs[topDocs.scoreDocs.length - 1];
+                    nextCursor = null;
                 }
-                topDocs = queryDocuments(pageSize, memento);
-                page++;
-            }
-            List<E> ret = new ArrayList<E>(topDocs.scoreDocs.length);
-            for (int i = 0; i < topDocs.scoreDocs.length; i++) {
-                FieldDoc fieldDoc = (FieldDoc) topDocs.scoreDocs[i];
-                Document doc = searcher.doc(fieldDoc.doc);
-                ret.add(this.transformer.documentToEntity(doc));
+                Page<E> ret = new Page<E>(toEntities(searcher, topDocs, size), nextCursor);
+                this.lastCursor = nextCursor;
+                this.exhausted = nextCursor == null;
+                return ret;
+            } finally {
+                searcherSource.release(searcher);
             }
-            return ret;
         } catch (IOException ex) {
             throw new RuntimeException(ex);
         }
     }
 
-    private TopDocs queryDocuments(int pageSize, FieldDoc memento) throws IOException {
+    public synchronized Page<E> nextPage(int pageSize) {
+        if (this.exhausted) {
+            if (pageSize < 1) {
+                throw new IllegalArgumentException("pageSize must be greater than 0");
+            }
+            return new Page<E>(Collections.<E>emptyList(), null);
+        }
+        return getPage(this.lastCursor, pageSize);
+    }
+
+    private List<E> toEntities(IndexSearcher searcher, TopDocs topDocs, int size) throws IOException {
+        List<E> ret = new ArrayList<E>(size);
+        for (int i = 0; i < size; i++) {
+            FieldDoc fieldDoc = (FieldDoc) topDocs.scoreDocs[i];
+            Document doc = searcher.doc(fieldDoc.doc);
+            ret.add(this.transformer.documentToEntity(doc));
+        }
+        return ret;
+    }
+
+    private static long getReaderVersion(IndexSearcher searcher) {
+        IndexReader reader = searcher.getIndexReader();
+        if (reader instanceof DirectoryReader) {
+            return ((DirectoryReader) reader).getVersion();
+        }
+        return -1;
+    }
+
+    private TopDocs queryDocuments(IndexSearcher searcher, int pageSize, FieldDoc memento) throws IOException {
         TopDocsCollector documentCollector = TopFieldCollector.create(
                 this.sort, pageSize, memento, true, false, false, false);
         searcher.search(this.q, documentCollector);
-        this.totalHits = documentCollector.getTotalHits();
         return documentCollector.topDocs(0, pageSize);
     }
 
-    public IndexSearcher getSearcher() {
-        return searcher;
+    public SearcherSource getSearcherSource() {
+        return searcherSource;
     }
 
     public Query getQ() {
@@ -129,6 +276,52 @@ public class PaginatorImpl<E> implements Paginator<E> {
         return transformer;
     }
 
+    /**
+     * Collects the first hit (in index order), and aborts the search as soon as
+     * a second one is found.
+     */
+    private static final class SingleHitCollector extends Collector {
+
+        private int docBase;
+        private int doc = -1;
+
+        @Override
+        public void setScorer(Scorer scorer) throws IOException {
+        }
+
+        @Override
+        public void collect(int doc) throws IOException {
+            if (this.doc >= 0) {
+                throw SecondHitException.INSTANCE;
+            }
+            this.doc = docBase + doc;
+        }
+
+        @Override
+        public void setNextReader(AtomicReaderContext context) throws IOException {
+            this.docBase = context.docBase;
+        }
+
+        @Override
+        public boolean acceptsDocsOutOfOrder() {
+            return false;
+        }
+
+        public int getDoc() {
+            return doc;
+        }
+
+        private static final class SecondHitException extends RuntimeException {
+
+            private static final SecondHitException INSTANCE = new SecondHitException();
+
+            @Override
+            public synchronized Throwable fillInStackTrace() {
+                return this;
+            }
+        }
+    }
+
     private static long getTotalPages(int pageSize, long totalRecords) {
         long r = totalRecords % pageSize;
         if (r == 0) {
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.pagination;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * Lazy iterator over the records matching a query, in index order. Records
+ * are decoded one at a time, so iterating a whole result set takes constant
+ * memory.
+ * <p>
+ * The iterator holds a snapshot of the index (not affected by later commits)
+ * until it is exhausted or closed, so it must be closed if not fully consumed.
+ * Instances are not thread safe, but can be split via {@link #trySplit()} to
+ * process the result set concurrently.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public interface RecordIterator<E> extends Iterator<E>, Closeable {
+
+    /**
+     * Splits off the trailing half of the index segments not yet visited by
+     * this iterator, into a new iterator over the same snapshot.
+     *
+     * @return the new iterator, or <code>null</code> if there are not enough
+     * unvisited segments left
+     */
+    public RecordIterator<E> trySplit();
+
+    /**
+     * Releases the index snapshot. Further calls to {@link #hasNext()} return
+     * <code>false</code>.
+     */
+    @Override
+    public void close();
+}
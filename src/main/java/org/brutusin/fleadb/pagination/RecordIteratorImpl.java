@@ -0,0 +1,169 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.pagination;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.NoSuchElementException;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Weight;
+import org.brutusin.fleadb.DocTransformer;
+
+/**
+ * Walks the matching documents segment by segment, straight from the scorer of
+ * the query, without collecting them.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public final class RecordIteratorImpl<E> implements RecordIterator<E> {
+
+    private final SearcherSource searcherSource;
+    private final DocTransformer<E> transformer;
+    private final IndexSearcher searcher;
+    private final Weight weight;
+    private final List<AtomicReaderContext> leaves;
+
+    // Segments in [leafIndex, endLeaf) remain to be visited
+    private int leafIndex;
+    private int endLeaf;
+    private AtomicReaderContext leaf;
+    private DocIdSetIterator docs;
+    private int doc = DocIdSetIterator.NO_MORE_DOCS;
+    private boolean closed;
+
+    public RecordIteratorImpl(SearcherSource searcherSource, DocTransformer<E> transformer, Query q) {
+        this.searcherSource = searcherSource;
+        this.transformer = transformer;
+        try {
+            this.searcher = searcherSource.acquire();
+            try {
+                this.weight = searcher.createNormalizedWeight(q);
+                this.leaves = searcher.getIndexReader().leaves();
+                this.leafIndex = -1;
+                this.endLeaf = leaves.size();
+                advance();
+            } catch (IOException ex) {
+                searcherSource.release(searcher);
+                throw ex;
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Iterator over the segments [fromLeaf, endLeaf) of the snapshot of other
+     * iterator, that holds its own reference to it.
+     */
+    private RecordIteratorImpl(RecordIteratorImpl<E> other, int fromLeaf, int endLeaf) throws IOException {
+        this.searcherSource = other.searcherSource;
+        this.transformer = other.transformer;
+        this.searcher = other.searcher;
+        this.weight = other.weight;
+        this.leaves = other.leaves;
+        this.leafIndex = fromLeaf - 1;
+        this.endLeaf = endLeaf;
+        searcher.getIndexReader().incRef();
+        try {
+            advance();
+        } catch (IOException ex) {
+            searcherSource.release(searcher);
+            throw ex;
+        }
+    }
+
+    /**
+     * Positions the iterator on the next matching document, moving to the
+     * following segments if needed. Releases the snapshot once exhausted.
+     */
+    private void advance() throws IOException {
+        while (true) {
+            if (docs != null) {
+                doc = docs.nextDoc();
+                if (doc != DocIdSetIterator.NO_MORE_DOCS) {
+                    return;
+                }
+                docs = null;
+            }
+            leafIndex++;
+            if (leafIndex >= endLeaf) {
+                close();
+                return;
+            }
+            leaf = leaves.get(leafIndex);
+            docs = weight.scorer(leaf, leaf.reader().getLiveDocs());
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !closed;
+    }
+
+    @Override
+    public E next() {
+        if (closed) {
+            throw new NoSuchElementException();
+        }
+        try {
+            Document document = leaf.reader().document(doc);
+            advance();
+            return transformer.documentToEntity(document);
+        } catch (IOException ex) {
+            close();
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Records can not be removed while iterating");
+    }
+
+    @Override
+    public RecordIterator<E> trySplit() {
+        int remaining = endLeaf - leafIndex - 1;
+        if (closed || remaining < 1) {
+            return null;
+        }
+        int mid = endLeaf - (remaining + 1) / 2;
+        try {
+            RecordIteratorImpl<E> ret = new RecordIteratorImpl<E>(this, mid, endLeaf);
+            this.endLeaf = mid;
+            return ret;
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        docs = null;
+        try {
+            searcherSource.release(searcher);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
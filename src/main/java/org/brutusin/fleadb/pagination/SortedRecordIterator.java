@@ -0,0 +1,470 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.pagination;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.FieldComparator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.util.BytesRef;
+import org.brutusin.fleadb.DocTransformer;
+
+/**
+ * Iterator over the records matching a query in the order given by a sort,
+ * based on an external merge sort. The sort values and id of every hit are
+ * collected into a memory buffer that, once full, is sorted and spilled to a
+ * run file. Runs are finally merged while records are decoded one at a time,
+ * so memory usage is bounded by the buffer size whatever the number of hits.
+ * <p>
+ * If all the keys fit in the buffer no file is written. Ties are resolved in
+ * index order, as in paginated queries. Sorted iterators can not be split.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public final class SortedRecordIterator<E> implements RecordIterator<E> {
+
+    private static final byte NULL = 0;
+    private static final byte BYTES = 1;
+    private static final byte LONG = 2;
+    private static final byte DOUBLE = 3;
+    private static final byte INT = 4;
+    private static final byte FLOAT = 5;
+
+    private final SearcherSource searcherSource;
+    private final DocTransformer<E> transformer;
+    private final IndexSearcher searcher;
+    private final SortField[] sortFields;
+    private final FieldComparator[] comparators;
+    private final List<File> runFiles = new ArrayList<File>();
+    private final List<Run> runs = new ArrayList<Run>();
+
+    private Iterator<Key> memoryKeys;
+    private PriorityQueue<Run> queue;
+    private Key key;
+    private boolean closed;
+
+    private final Comparator<Key> keyComparator = new Comparator<Key>() {
+        @Override
+        public int compare(Key k1, Key k2) {
+            for (int i = 0; i < comparators.length; i++) {
+                int c = comparators[i].compareValues(k1.values[i], k2.values[i]);
+                if (c != 0) {
+                    return sortFields[i].getReverse() ? -c : c;
+                }
+            }
+            return k1.doc < k2.doc ? -1 : (k1.doc == k2.doc ? 0 : 1);
+        }
+    };
+
+    public SortedRecordIterator(SearcherSource searcherSource, DocTransformer<E> transformer, Query q, Sort sort, ExportOptions options) {
+        if (options == null) {
+            options = ExportOptions.create();
+        }
+        this.searcherSource = searcherSource;
+        this.transformer = transformer;
+        this.sortFields = sort.getSort();
+        try {
+            this.comparators = new FieldComparator[sortFields.length];
+            for (int i = 0; i < sortFields.length; i++) {
+                comparators[i] = sortFields[i].getComparator(1, i);
+            }
+            this.searcher = searcherSource.acquire();
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+        try {
+            KeyCollector collector = new KeyCollector(options);
+            searcher.search(q, collector);
+            if (runFiles.isEmpty()) {
+                Collections.sort(collector.keys, keyComparator);
+                this.memoryKeys = collector.keys.iterator();
+            } else {
+                collector.spill();
+                while (runFiles.size() > options.getMaxMergeFanIn()) {
+                    mergeRuns(new ArrayList<File>(runFiles.subList(0, options.getMaxMergeFanIn())), options.getTempFolder());
+                }
+                this.queue = createQueue(runFiles.size());
+                for (File runFile : runFiles) {
+                    Run run = new Run(runFile);
+                    runs.add(run);
+                    if (run.next()) {
+                        queue.add(run);
+                    }
+                }
+            }
+            advance();
+        } catch (IOException ex) {
+            close();
+            throw new RuntimeException(ex);
+        } catch (RuntimeException ex) {
+            close();
+            throw ex;
+        }
+    }
+
+    private PriorityQueue<Run> createQueue(int size) {
+        return new PriorityQueue<Run>(size, new Comparator<Run>() {
+            @Override
+            public int compare(Run r1, Run r2) {
+                return keyComparator.compare(r1.current, r2.current);
+            }
+        });
+    }
+
+    /**
+     * Merges the given runs into a new one, appended to the run list, and
+     * deletes them. Since the merged run is appended, repeated merges of the
+     * leading runs process every key a logarithmic number of times.
+     */
+    private void mergeRuns(List<File> inputFiles, File tempFolder) throws IOException {
+        File runFile = File.createTempFile("flea-db-export-", ".run", tempFolder);
+        runFiles.add(runFile);
+        List<Run> inputs = new ArrayList<Run>(inputFiles.size());
+        try {
+            int size = 0;
+            for (File inputFile : inputFiles) {
+                Run input = new Run(inputFile);
+                inputs.add(input);
+                size += input.remaining;
+            }
+            PriorityQueue<Run> mergeQueue = createQueue(inputs.size());
+            for (Run input : inputs) {
+                if (input.next()) {
+                    mergeQueue.add(input);
+                }
+            }
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile)));
+            try {
+                out.writeInt(size);
+                Run input;
+                while ((input = mergeQueue.poll()) != null) {
+                    writeKey(out, input.current);
+                    if (input.next()) {
+                        mergeQueue.add(input);
+                    }
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            for (Run input : inputs) {
+                input.close();
+            }
+        }
+        for (File inputFile : inputFiles) {
+            runFiles.remove(inputFile);
+            inputFile.delete();
+        }
+    }
+
+    /**
+     * Positions the iterator on the key of the next record. Releases the
+     * resources once exhausted.
+     */
+    private void advance() throws IOException {
+        if (memoryKeys != null) {
+            key = memoryKeys.hasNext() ? memoryKeys.next() : null;
+        } else {
+            Run run = queue.poll();
+            if (run == null) {
+                key = null;
+            } else {
+                key = run.current;
+                if (run.next()) {
+                    queue.add(run);
+                }
+            }
+        }
+        if (key == null) {
+            close();
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !closed;
+    }
+
+    @Override
+    public E next() {
+        if (closed) {
+            throw new NoSuchElementException();
+        }
+        try {
+            Document document = searcher.doc(key.doc);
+            advance();
+            return transformer.documentToEntity(document);
+        } catch (IOException ex) {
+            close();
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Records can not be removed while iterating");
+    }
+
+    @Override
+    public RecordIterator<E> trySplit() {
+        return null;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        memoryKeys = null;
+        queue = null;
+        key = null;
+        try {
+            for (Run run : runs) {
+                run.close();
+            }
+            for (File runFile : runFiles) {
+                runFile.delete();
+            }
+            if (searcher != null) {
+                searcherSource.release(searcher);
+            }
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    private static void writeKey(DataOutputStream out, Key key) throws IOException {
+        out.writeInt(key.doc);
+        for (int i = 0; i < key.values.length; i++) {
+            writeValue(out, key.values[i]);
+        }
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof BytesRef) {
+            BytesRef bytes = (BytesRef) value;
+            out.writeByte(BYTES);
+            out.writeInt(bytes.length);
+            out.write(bytes.bytes, bytes.offset, bytes.length);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INT);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Float) {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        } else {
+            throw new IllegalArgumentException("Unsupported sort value type: " + value.getClass().getName());
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case NULL:
+                return null;
+            case BYTES:
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                return new BytesRef(bytes);
+            case LONG:
+                return in.readLong();
+            case DOUBLE:
+                return in.readDouble();
+            case INT:
+                return in.readInt();
+            case FLOAT:
+                return in.readFloat();
+            default:
+                throw new IOException("Corrupted run file. Unknown value type: " + type);
+        }
+    }
+
+    /**
+     * Sort values and global id of a hit.
+     */
+    private static final class Key {
+
+        private final int doc;
+        private final Object[] values;
+
+        public Key(int doc, Object[] values) {
+            this.doc = doc;
+            this.values = values;
+        }
+
+        /**
+         * Rough heap size estimation.
+         */
+        long ramBytes() {
+            long ret = 40 + 8 * values.length;
+            for (int i = 0; i < values.length; i++) {
+                Object value = values[i];
+                if (value instanceof BytesRef) {
+                    ret += 56 + ((BytesRef) value).length;
+                } else if (value != null) {
+                    ret += 16;
+                }
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * Gathers the keys of the hits, spilling sorted runs to disk when the
+     * memory budget is exceeded.
+     */
+    private final class KeyCollector extends Collector {
+
+        private final long maxBytes;
+        private final File tempFolder;
+        private final FieldComparator[] segmentComparators;
+        private List<Key> keys = new ArrayList<Key>();
+        private long bytes;
+        private int docBase;
+
+        public KeyCollector(ExportOptions options) throws IOException {
+            this.maxBytes = (long) (options.getMaxMemoryMB() * 1024 * 1024);
+            this.tempFolder = options.getTempFolder();
+            this.segmentComparators = new FieldComparator[sortFields.length];
+            for (int i = 0; i < sortFields.length; i++) {
+                segmentComparators[i] = sortFields[i].getComparator(1, i);
+            }
+        }
+
+        @Override
+        public void setScorer(Scorer scorer) throws IOException {
+            for (int i = 0; i < segmentComparators.length; i++) {
+                segmentComparators[i].setScorer(scorer);
+            }
+        }
+
+        @Override
+        public void collect(int doc) throws IOException {
+            Object[] values = new Object[segmentComparators.length];
+            for (int i = 0; i < segmentComparators.length; i++) {
+                segmentComparators[i].copy(0, doc);
+                Object value = segmentComparators[i].value(0);
+                if (value instanceof BytesRef) {
+                    // Comparators reuse their slot buffers
+                    value = BytesRef.deepCopyOf((BytesRef) value);
+                }
+                values[i] = value;
+            }
+            Key k = new Key(docBase + doc, values);
+            keys.add(k);
+            bytes += k.ramBytes();
+            if (bytes > maxBytes) {
+                spill();
+            }
+        }
+
+        @Override
+        public void setNextReader(AtomicReaderContext context) throws IOException {
+            this.docBase = context.docBase;
+            for (int i = 0; i < segmentComparators.length; i++) {
+                segmentComparators[i] = segmentComparators[i].setNextReader(context);
+            }
+        }
+
+        @Override
+        public boolean acceptsDocsOutOfOrder() {
+            return false;
+        }
+
+        private void spill() throws IOException {
+            if (keys.isEmpty()) {
+                return;
+            }
+            Collections.sort(keys, keyComparator);
+            File runFile = File.createTempFile("flea-db-export-", ".run", tempFolder);
+            runFiles.add(runFile);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile)));
+            try {
+                out.writeInt(keys.size());
+                for (Key k : keys) {
+                    writeKey(out, k);
+                }
+            } finally {
+                out.close();
+            }
+            this.keys = new ArrayList<Key>();
+            this.bytes = 0;
+        }
+    }
+
+    /**
+     * Sequential reader of a run file.
+     */
+    private final class Run {
+
+        private final DataInputStream in;
+        private int remaining;
+        private Key current;
+
+        public Run(File runFile) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(runFile)));
+            this.remaining = in.readInt();
+        }
+
+        boolean next() throws IOException {
+            if (remaining == 0) {
+                current = null;
+                return false;
+            }
+            remaining--;
+            int doc = in.readInt();
+            Object[] values = new Object[sortFields.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = readValue(in);
+            }
+            current = new Key(doc, values);
+            return true;
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.query;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.AutomatonQuery;
+import org.apache.lucene.search.RegexpQuery;
+import org.apache.lucene.search.WildcardQuery;
+
+/**
+ * JVM-wide LRU cache of automaton based queries (regular expression and
+ * wildcard), keyed by field and pattern. Building these queries involves
+ * parsing the pattern and determinizing its automaton, so repeated patterns
+ * reuse the same compiled instance. Cached queries are never mutated, so they
+ * can be safely shared among threads.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+final class AutomatonQueryCache {
+
+    private static final int MAX_ENTRIES = 1000;
+
+    private static final Map<Key, AutomatonQuery> CACHE = new LinkedHashMap<Key, AutomatonQuery>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, AutomatonQuery> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private AutomatonQueryCache() {
+    }
+
+    public static AutomatonQuery getRegexpQuery(String field, String pattern) {
+        Key key = new Key(true, field, pattern);
+        AutomatonQuery ret = get(key);
+        if (ret == null) {
+            ret = new RegexpQuery(new Term(field, pattern));
+            put(key, ret);
+        }
+        return ret;
+    }
+
+    public static AutomatonQuery getWildcardQuery(String field, String pattern) {
+        Key key = new Key(false, field, pattern);
+        AutomatonQuery ret = get(key);
+        if (ret == null) {
+            ret = new WildcardQuery(new Term(field, pattern));
+            put(key, ret);
+        }
+        return ret;
+    }
+
+    private static AutomatonQuery get(Key key) {
+        synchronized (CACHE) {
+            return CACHE.get(key);
+        }
+    }
+
+    private static void put(Key key, AutomatonQuery query) {
+        synchronized (CACHE) {
+            CACHE.put(key, query);
+        }
+    }
+
+    private static final class Key {
+
+        private final boolean regexp;
+        private final String field;
+        private final String pattern;
+
+        public Key(boolean regexp, String field, String pattern) {
+            this.regexp = regexp;
+            this.field = field;
+            this.pattern = pattern;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = regexp ? 1 : 0;
+            hash = 31 * hash + field.hashCode();
+            hash = 31 * hash + pattern.hashCode();
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return regexp == other.regexp && field.equals(other.field) && pattern.equals(other.pattern);
+        }
+    }
+}
@@ -15,9 +15,12 @@
  */
 package org.brutusin.fleadb.query;
 
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.ConstantScoreQuery;
 import org.brutusin.fleadb.Schema;
 
 /**
@@ -27,19 +30,45 @@ import org.brutusin.fleadb.Schema;
 public final class BooleanQuery extends Query {
 
     private final LinkedHashMap<Query, BooleanClause.Occur> clauses = new LinkedHashMap();
+    private final List<Query> filters = new ArrayList<Query>();
 
     public void add(Query query, BooleanClause.Occur occur) {
         this.clauses.put(query, occur);
     }
 
+    /**
+     * Adds a required clause that does not take part in scoring, and whose
+     * matching documents are cached per index segment in the
+     * {@link FilterCache}. Intended for stable and frequently repeated
+     * restrictions (tenant, status, category ...).
+     *
+     * @param query
+     */
+    public void addFilter(Query query) {
+        this.filters.add(query);
+    }
+
+    /**
+     * Not memoized, since clauses can be added at any time. Assembling it
+     * is cheap anyway, as clauses are.
+     */
     @Override
     public org.apache.lucene.search.Query getLuceneQuery(Schema schema) {
-        org.apache.lucene.search.BooleanQuery q = new org.apache.lucene.search.BooleanQuery();
+        return createLuceneQuery(schema);
+    }
+
+    @Override
+    org.apache.lucene.search.Query createLuceneQuery(Schema schema) {
+        // Coordination factor is only meaningful for relevance ranking
+        org.apache.lucene.search.BooleanQuery q = new org.apache.lucene.search.BooleanQuery(true);
         for (Map.Entry<Query, BooleanClause.Occur> entry : clauses.entrySet()) {
             Query query = entry.getKey();
             BooleanClause.Occur occur = entry.getValue();
             q.add(query.getLuceneQuery(schema), occur);
         }
+        for (int i = 0; i < filters.size(); i++) {
+            q.add(new ConstantScoreQuery(new CachedQueryFilter(filters.get(i).getLuceneQuery(schema))), BooleanClause.Occur.MUST);
+        }
         return q;
     }
 }
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.query;
+
+import java.io.IOException;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.search.BitsFilteredDocIdSet;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.util.Bits;
+
+/**
+ * Filter whose per-segment doc-id sets are held in the {@link FilterCache}.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+final class CachedQueryFilter extends Filter {
+
+    private final org.apache.lucene.search.Query query;
+
+    CachedQueryFilter(org.apache.lucene.search.Query query) {
+        this.query = query;
+    }
+
+    @Override
+    public DocIdSet getDocIdSet(AtomicReaderContext context, Bits acceptDocs) throws IOException {
+        DocIdSet docIdSet = FilterCache.getInstance().getDocIdSet(context, query);
+        return BitsFilteredDocIdSet.wrap(docIdSet, acceptDocs);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof CachedQueryFilter)) {
+            return false;
+        }
+        return query.equals(((CachedQueryFilter) obj).query);
+    }
+
+    @Override
+    public int hashCode() {
+        return query.hashCode() ^ 0x1AB3C5D7;
+    }
+
+    @Override
+    public String toString() {
+        return "CachedQueryFilter(" + query + ")";
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.query;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.QueryWrapperFilter;
+import org.apache.lucene.util.WAH8DocIdSet;
+
+/**
+ * JVM-wide cache of the per-segment doc-id sets of filter clauses (see
+ * {@link BooleanQuery#addFilter(Query)}), shared by all the databases, and
+ * bounded by a global memory budget (LRU eviction).
+ * <p>
+ * Entries are keyed by segment core, so they survive reopens (including
+ * near-real-time ones) of unchanged segments: deletions are applied on use,
+ * and entries are purged as soon as their segment is closed.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public final class FilterCache {
+
+    public static final long DEFAULT_MAX_BYTES = 64 * 1024 * 1024;
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private static final FilterCache INSTANCE = new FilterCache();
+
+    private final LinkedHashMap<Key, Entry> map = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+    private final Map<Object, Set<Key>> coreKeys = new HashMap<Object, Set<Key>>();
+    private final AtomicReader.CoreClosedListener purger = new AtomicReader.CoreClosedListener() {
+        @Override
+        public void onClose(Object ownerCoreCacheKey) {
+            purge(ownerCoreCacheKey);
+        }
+    };
+
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    private FilterCache() {
+    }
+
+    public static FilterCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Sets the memory budget of the cache, in bytes. A value &lt;= 0 disables
+     * the cache.
+     *
+     * @param maxBytes
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized FilterCacheStats getStats() {
+        return new FilterCacheStats(hits, misses, evictions, map.size(), bytes);
+    }
+
+    public synchronized void clear() {
+        map.clear();
+        coreKeys.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Returns the doc-id set (deleted documents included) of the query in the
+     * segment, computing it if not cached.
+     */
+    DocIdSet getDocIdSet(AtomicReaderContext context, org.apache.lucene.search.Query query) throws IOException {
+        AtomicReader reader = context.reader();
+        Key key = new Key(reader.getCoreCacheKey(), query);
+        synchronized (this) {
+            if (maxBytes <= 0) {
+                return new QueryWrapperFilter(query).getDocIdSet(context, null);
+            }
+            Entry entry = map.get(key);
+            if (entry != null) {
+                hits++;
+                return entry.docIdSet;
+            }
+            misses++;
+        }
+        // Computed out of the lock. Concurrent misses may compute it twice
+        WAH8DocIdSet.Builder builder = new WAH8DocIdSet.Builder();
+        DocIdSet docIdSet = new QueryWrapperFilter(query).getDocIdSet(context, null);
+        if (docIdSet != null) {
+            DocIdSetIterator it = docIdSet.iterator();
+            if (it != null) {
+                builder.add(it);
+            }
+        }
+        WAH8DocIdSet ret = builder.build();
+        long entryBytes = ENTRY_OVERHEAD + ret.ramBytesUsed();
+        boolean register = false;
+        synchronized (this) {
+            if (entryBytes <= maxBytes && !map.containsKey(key)) {
+                map.put(key, new Entry(ret, entryBytes));
+                bytes += entryBytes;
+                Set<Key> keys = coreKeys.get(key.coreKey);
+                if (keys == null) {
+                    keys = new HashSet<Key>();
+                    coreKeys.put(key.coreKey, keys);
+                    register = true;
+                }
+                keys.add(key);
+                evict();
+            }
+        }
+        if (register) {
+            reader.addCoreClosedListener(purger);
+        }
+        return ret;
+    }
+
+    private synchronized void purge(Object coreKey) {
+        Set<Key> keys = coreKeys.remove(coreKey);
+        if (keys != null) {
+            for (Key key : keys) {
+                Entry entry = map.remove(key);
+                if (entry != null) {
+                    bytes -= entry.bytes;
+                }
+            }
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Key, Entry>> it = map.entrySet().iterator();
+        while (bytes > Math.max(maxBytes, 0) && it.hasNext()) {
+            Map.Entry<Key, Entry> mapEntry = it.next();
+            bytes -= mapEntry.getValue().bytes;
+            it.remove();
+            Set<Key> keys = coreKeys.get(mapEntry.getKey().coreKey);
+            if (keys != null) {
+                keys.remove(mapEntry.getKey());
+                // Closed listener remains registered and is harmless, hence the core key entry is kept
+            }
+            evictions++;
+        }
+    }
+
+    private static final class Entry {
+
+        private final DocIdSet docIdSet;
+        private final long bytes;
+
+        public Entry(DocIdSet docIdSet, long bytes) {
+            this.docIdSet = docIdSet;
+            this.bytes = bytes;
+        }
+    }
+
+    private static final class Key {
+
+        private final Object coreKey;
+        private final org.apache.lucene.search.Query query;
+
+        public Key(Object coreKey, org.apache.lucene.search.Query query) {
+            this.coreKey = coreKey;
+            this.query = query;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(coreKey) + query.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return coreKey == other.coreKey && query.equals(other.query);
+        }
+    }
+}
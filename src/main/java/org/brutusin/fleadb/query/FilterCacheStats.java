@@ -0,0 +1,94 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.query;
+
+/**
+ * Snapshot of the statistics of the {@link FilterCache}.
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public final class FilterCacheStats {
+
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final int size;
+    private final long bytes;
+
+    FilterCacheStats(long hits, long misses, long evictions, int size, long bytes) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.size = size;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Number of segment doc-id sets served from the cache.
+     *
+     * @return
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Number of segment doc-id sets computed.
+     *
+     * @return
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    public double getHitRatio() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Number of entries removed to honor the memory budget. Entries of closed
+     * segments are not counted.
+     *
+     * @return
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Number of cached segment doc-id sets.
+     *
+     * @return
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Heap used by the cached doc-id sets, in bytes.
+     *
+     * @return
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "{hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + ", size=" + size + ", bytes=" + bytes + "}";
+    }
+}
@@ -15,16 +15,20 @@
  */
 package org.brutusin.fleadb.query;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.queries.TermsFilter;
+import org.apache.lucene.search.ConstantScoreQuery;
 import org.apache.lucene.search.FuzzyQuery;
 import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.NumericRangeQuery;
 import org.apache.lucene.search.PrefixQuery;
-import org.apache.lucene.search.RegexpQuery;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TermRangeQuery;
-import org.apache.lucene.search.WildcardQuery;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.NumericUtils;
 import org.brutusin.json.spi.JsonNode;
 import org.brutusin.fleadb.Schema;
 
@@ -34,6 +38,8 @@ import org.brutusin.fleadb.Schema;
  */
 public abstract class Query {
 
+    private volatile Compiled compiled;
+
     Query() {
     }
 
@@ -41,7 +47,7 @@ public abstract class Query {
         private final org.apache.lucene.search.Query luceneQuery = new MatchAllDocsQuery();
 
         @Override
-        public org.apache.lucene.search.Query getLuceneQuery(Schema schema) {
+        org.apache.lucene.search.Query createLuceneQuery(Schema schema) {
             return luceneQuery;
         }
     };
@@ -49,7 +55,7 @@ public abstract class Query {
     public static Query createNumericRangeQuery(final String field, final double min, final double max, final boolean minInclusive, final boolean maxInclusive) {
         return new Query() {
             @Override
-            public org.apache.lucene.search.Query getLuceneQuery(Schema schema) {
+            org.apache.lucene.search.Query createLuceneQuery(Schema schema) {
                 validateType(field, schema, JsonNode.Type.NUMBER);
                 return NumericRangeQuery.newDoubleRange(field, min, max, minInclusive, maxInclusive);
             }
@@ -59,7 +65,7 @@ public abstract class Query {
     public static Query createIntegerRangeQuery(final String field, final long min, final long max, final boolean minInclusive, final boolean maxInclusive) {
         return new Query() {
             @Override
-            public org.apache.lucene.search.Query getLuceneQuery(Schema schema) {
+            org.apache.lucene.search.Query createLuceneQuery(Schema schema) {
                 validateType(field, schema, JsonNode.Type.INTEGER);
                 return NumericRangeQuery.newLongRange(field, min, max, minInclusive, maxInclusive);
             }
@@ -69,7 +75,7 @@ public abstract class Query {
     public static Query createTermRangeQuery(final String field, final String lower, final String upper, final boolean minInclusive, final boolean maxInclusive) {
         return new Query() {
             @Override
-            public org.apache.lucene.search.Query getLuceneQuery(Schema schema) {
+            org.apache.lucene.search.Query createLuceneQuery(Schema schema) {
                 validateType(field, schema, JsonNode.Type.STRING);
                 return new TermRangeQuery(field, new BytesRef(lower), new BytesRef(upper), minInclusive, maxInclusive);
             }
@@ -79,19 +85,75 @@ public abstract class Query {
     public static Query createTermQuery(final String field, final String value) {
         return new Query() {
             @Override
-            public org.apache.lucene.search.Query getLuceneQuery(Schema schema) {
+            org.apache.lucene.search.Query createLuceneQuery(Schema schema) {
                 validateType(field, schema, JsonNode.Type.STRING);
                 return new TermQuery(new Term(field, value));
             }
         };
     }
 
+    /**
+     * Creates a query matching records with any of the specified values in the
+     * field. Unlike a boolean expansion of term queries, it is not limited by
+     * the maximum number of clauses, and it is executed as a single sorted seek
+     * of the terms per index segment.
+     *
+     * @param field
+     * @param values
+     * @return
+     */
+    public static Query createTermsQuery(final String field, final Collection<String> values) {
+        final List<BytesRef> terms = new ArrayList<BytesRef>(values.size());
+        for (String value : values) {
+            terms.add(new BytesRef(value));
+        }
+        return new Query() {
+            @Override
+            org.apache.lucene.search.Query createLuceneQuery(Schema schema) {
+                validateType(field, schema, JsonNode.Type.STRING);
+                return createTermsQuery(field, terms);
+            }
+        };
+    }
+
+    /**
+     * Integer counterpart of {@link #createTermsQuery(String, Collection)}.
+     *
+     * @param field
+     * @param values
+     * @return
+     */
+    public static Query createIntegerTermsQuery(final String field, final Collection<Long> values) {
+        final List<BytesRef> terms = new ArrayList<BytesRef>(values.size());
+        for (Long value : values) {
+            // Full precision term of the trie encoding
+            BytesRef bytes = new BytesRef(NumericUtils.BUF_SIZE_LONG);
+            NumericUtils.longToPrefixCoded(value, 0, bytes);
+            terms.add(bytes);
+        }
+        return new Query() {
+            @Override
+            org.apache.lucene.search.Query createLuceneQuery(Schema schema) {
+                validateType(field, schema, JsonNode.Type.INTEGER);
+                return createTermsQuery(field, terms);
+            }
+        };
+    }
+
+    private static org.apache.lucene.search.Query createTermsQuery(String field, List<BytesRef> terms) {
+        if (terms.isEmpty()) {
+            // Empty boolean query matches no documents
+            return new org.apache.lucene.search.BooleanQuery(true);
+        }
+        return new ConstantScoreQuery(new TermsFilter(field, terms));
+    }
+
     public static Query createWildcardQuery(final String field, final String value) {
         return new Query() {
             @Override
-            public org.apache.lucene.search.Query getLuceneQuery(Schema schema) {
+            org.apache.lucene.search.Query createLuceneQuery(Schema schema) {
                 validateType(field, schema, JsonNode.Type.STRING);
-                return new WildcardQuery(new Term(field, value));
+                return AutomatonQueryCache.getWildcardQuery(field, value);
             }
         };
     }
@@ -99,7 +161,7 @@ public abstract class Query {
     public static Query createPrefixQuery(final String field, final String value) {
         return new Query() {
             @Override
-            public org.apache.lucene.search.Query getLuceneQuery(Schema schema) {
+            org.apache.lucene.search.Query createLuceneQuery(Schema schema) {
                 validateType(field, schema, JsonNode.Type.STRING);
                 return new PrefixQuery(new Term(field, value));
             }
@@ -109,7 +171,7 @@ public abstract class Query {
     public static Query createFuzzyQuery(final String field, final String value) {
         return new Query() {
             @Override
-            public org.apache.lucene.search.Query getLuceneQuery(Schema schema) {
+            org.apache.lucene.search.Query createLuceneQuery(Schema schema) {
                 validateType(field, schema, JsonNode.Type.STRING);
                 return new FuzzyQuery(new Term(field, value));
             }
@@ -119,14 +181,44 @@ public abstract class Query {
     public static Query createRegExpQuery(final String field, final String value) {
         return new Query() {
             @Override
-            public org.apache.lucene.search.Query getLuceneQuery(Schema schema) {
+            org.apache.lucene.search.Query createLuceneQuery(Schema schema) {
                 validateType(field, schema, JsonNode.Type.STRING);
-                return new RegexpQuery(new Term(field, value));
+                return AutomatonQueryCache.getRegexpQuery(field, value);
             }
         };
     }
 
-    public abstract org.apache.lucene.search.Query getLuceneQuery(Schema schema);
+    /**
+     * Returns the Lucene query for the schema. Compiled queries are memoized
+     * for the last schema used.
+     *
+     * @param schema
+     * @return
+     */
+    public org.apache.lucene.search.Query getLuceneQuery(Schema schema) {
+        Compiled compiled = this.compiled;
+        if (compiled == null || compiled.schema != schema) {
+            compiled = new Compiled(schema, createLuceneQuery(schema));
+            this.compiled = compiled;
+        }
+        return compiled.luceneQuery;
+    }
+
+    abstract org.apache.lucene.search.Query createLuceneQuery(Schema schema);
+
+    /**
+     * Compiled query and the schema it was compiled for, published atomically.
+     */
+    private static final class Compiled {
+
+        private final Schema schema;
+        private final org.apache.lucene.search.Query luceneQuery;
+
+        public Compiled(Schema schema, org.apache.lucene.search.Query luceneQuery) {
+            this.schema = schema;
+            this.luceneQuery = luceneQuery;
+        }
+    }
 
     private static void validateType(String field, Schema schema, JsonNode.Type allowedType) {
         JsonNode.Type type = schema.getIndexFields().get(field);
@@ -15,6 +15,7 @@
  */
 package org.brutusin.fleadb.sort;
 
+import org.apache.lucene.sandbox.queries.SortedSetSortField;
 import org.brutusin.json.spi.JsonNode;
 import org.brutusin.fleadb.Schema;
 
@@ -37,6 +38,13 @@ public class SortField {
         if (jsonType == null) {
             throw new IllegalArgumentException("Unknown sort field '" + field + "' found. Supported field are: " + schema.getIndexFields().keySet());
         }
+        // Single-valued DocValues fields are transparently read from DocValues (instead of uninverted) by the sort FieldCache
+        if (schema.getDocValuesFields().contains(field) && (field.contains("[*]") || field.contains("[#]"))) {
+            if (jsonType == JsonNode.Type.STRING || jsonType == JsonNode.Type.BOOLEAN) {
+                return new SortedSetSortField(field, reverse);
+            }
+            throw new IllegalArgumentException("Sorting by multievaluated numeric DocValues field '" + field + "' is not supported");
+        }
         org.apache.lucene.search.SortField.Type type;
         switch (jsonType) {
             case BOOLEAN:
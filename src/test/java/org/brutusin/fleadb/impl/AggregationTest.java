@@ -0,0 +1,205 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.impl;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.apache.lucene.search.IndexSearcher;
+import org.brutusin.fleadb.aggregation.AggregationResponse;
+import org.brutusin.fleadb.aggregation.Aggregations;
+import org.brutusin.fleadb.aggregation.Cardinality;
+import org.brutusin.fleadb.aggregation.FieldStats;
+import org.brutusin.fleadb.aggregation.Histogram;
+import org.brutusin.fleadb.aggregation.Percentiles;
+import org.brutusin.fleadb.pagination.PaginatorImpl;
+import org.brutusin.fleadb.pagination.SearcherSource;
+import org.brutusin.fleadb.query.Query;
+import org.brutusin.json.ParseException;
+import org.brutusin.json.spi.JsonCodec;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public class AggregationTest {
+
+    private static final String SCHEMA = "{\"type\":\"object\",\"properties\":{"
+            + "\"category\":{\"type\":\"string\",\"index\":\"index\",\"docValues\":true},"
+            + "\"age\":{\"type\":\"integer\",\"index\":\"index\",\"docValues\":true},"
+            + "\"price\":{\"type\":\"number\",\"index\":\"index\",\"docValues\":true},"
+            + "\"scores\":{\"type\":\"array\",\"items\":{\"type\":\"number\"},\"index\":\"index\",\"docValues\":true}}}";
+
+    private static final int MAX_RECORDS = 20;
+    private static final int BATCH_SIZE = 6;
+
+    private GenericFleaDB db;
+
+    @Before
+    public void setUp() throws IOException, ParseException {
+        db = new GenericFleaDB(JsonCodec.getInstance().parseSchema(SCHEMA));
+        for (int i = 0; i < MAX_RECORDS; i++) {
+            db.store(JsonCodec.getInstance().parse("{\"category\":\"c" + i % 2 + "\",\"age\":" + i + ",\"price\":" + i + ".5,\"scores\":[" + i + "," + -i + "]}"));
+            // Several segments, to aggregate them concurrently
+            if (i % BATCH_SIZE == BATCH_SIZE - 1) {
+                db.commit();
+            }
+        }
+        db.commit();
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void testStats() {
+        AggregationResponse resp = db.aggregate(Query.createTermQuery("$.category", "c0"), Aggregations.create().stats("$.age").stats("$.price"));
+        assertEquals(MAX_RECORDS / 2, resp.getTotalHits());
+        FieldStats age = resp.getStats("$.age");
+        assertEquals(MAX_RECORDS / 2, age.getCount());
+        assertEquals(90, age.getSum(), 0.001);
+        assertEquals(9, age.getAvg(), 0.001);
+        assertEquals(0, age.getMin(), 0.001);
+        assertEquals(18, age.getMax(), 0.001);
+        FieldStats price = resp.getStats("$.price");
+        assertEquals(0.5, price.getMin(), 0.001);
+        assertEquals(18.5, price.getMax(), 0.001);
+        assertNull(resp.getStats("$.scores[#]"));
+    }
+
+    @Test
+    public void testMultievaluatedStats() {
+        FieldStats scores = db.aggregate(Query.MATCH_ALL_DOCS_QUERY, Aggregations.create().stats("$.scores[#]")).getStats("$.scores[#]");
+        assertEquals(2 * MAX_RECORDS, scores.getCount());
+        assertEquals(0, scores.getSum(), 0.001);
+        assertEquals(-(MAX_RECORDS - 1), scores.getMin(), 0.001);
+        assertEquals(MAX_RECORDS - 1, scores.getMax(), 0.001);
+    }
+
+    @Test
+    public void testHistogram() {
+        Histogram histogram = db.aggregate(Query.MATCH_ALL_DOCS_QUERY, Aggregations.create().histogram("$.age", 5)).getHistogram("$.age");
+        assertEquals(4, histogram.getBuckets().size());
+        for (int i = 0; i < histogram.getBuckets().size(); i++) {
+            assertEquals(5 * i, histogram.getBuckets().get(i).getFrom(), 0.001);
+            assertEquals(5, histogram.getBuckets().get(i).getCount());
+        }
+        histogram = db.aggregate(Query.MATCH_ALL_DOCS_QUERY, Aggregations.create().histogram("$.scores[#]", 10)).getHistogram("$.scores[#]");
+        assertEquals(-20, histogram.getBuckets().get(0).getFrom(), 0.001);
+        assertEquals(9, histogram.getBuckets().get(0).getCount());
+    }
+
+    @Test
+    public void testMaxHistogramBuckets() {
+        assertEquals(4, db.aggregate(Query.MATCH_ALL_DOCS_QUERY, Aggregations.create().histogram("$.age", 5).maxHistogramBuckets(4)).getHistogram("$.age").getBuckets().size());
+        try {
+            db.aggregate(Query.MATCH_ALL_DOCS_QUERY, Aggregations.create().histogram("$.age", 5).maxHistogramBuckets(3));
+            fail("Bucket limit not enforced");
+        } catch (IllegalArgumentException ex) {
+            assertTrue(ex.getMessage().contains("$.age"));
+        }
+        try {
+            Aggregations.create().maxHistogramBuckets(0);
+            fail("Invalid bucket limit accepted");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        Percentiles percentiles = db.aggregate(Query.MATCH_ALL_DOCS_QUERY, Aggregations.create().percentiles("$.age", 0, 50, 100)).getPercentiles("$.age");
+        assertEquals(MAX_RECORDS, percentiles.getCount());
+        assertEquals(0, percentiles.getPercentile(0), 0.001);
+        assertEquals(9, percentiles.getPercentile(50), 9 * 0.01);
+        assertEquals(MAX_RECORDS - 1, percentiles.getPercentile(100), 0.001);
+        percentiles = db.aggregate(Query.MATCH_ALL_DOCS_QUERY, Aggregations.create().percentiles("$.scores[#]")).getPercentiles("$.scores[#]");
+        assertEquals(3, percentiles.getValues().size());
+        assertEquals(17, percentiles.getPercentile(95), 17 * 0.01);
+    }
+
+    @Test
+    public void testCardinality() {
+        AggregationResponse resp = db.aggregate(Query.MATCH_ALL_DOCS_QUERY, Aggregations.create()
+                .cardinality("$.category")
+                .cardinality("$.age", 10)
+                .cardinality("$.scores[#]"));
+        assertEquals(2, resp.getCardinality("$.category").getValue());
+        Cardinality age = resp.getCardinality("$.age");
+        assertEquals(MAX_RECORDS, age.getValue(), 1);
+        assertEquals(1.04 / 32, age.getRelativeStandardError(), 0.0001);
+        assertEquals(2 * MAX_RECORDS - 1, resp.getCardinality("$.scores[#]").getValue(), 1);
+    }
+
+    @Test
+    public void testConcurrentAggregation() throws IOException {
+        SearcherSource source = ((PaginatorImpl) db.query(Query.MATCH_ALL_DOCS_QUERY)).getSearcherSource();
+        IndexSearcher searcher = source.acquire();
+        int segments = searcher.getIndexReader().leaves().size();
+        source.release(searcher);
+        assertTrue(segments > 1);
+
+        Aggregations aggregations = Aggregations.create()
+                .stats("$.age").stats("$.scores[#]")
+                .histogram("$.price", 5)
+                .percentiles("$.scores[#]")
+                .cardinality("$.age").cardinality("$.category");
+        ExecutorService executor = Executors.newFixedThreadPool(segments);
+        try {
+            Query[] queries = {Query.MATCH_ALL_DOCS_QUERY, Query.createTermQuery("$.category", "c1")};
+            for (Query q : queries) {
+                AggregationResponse sequential = db.aggregate(q, aggregations, null);
+                AggregationResponse concurrent = db.aggregate(q, aggregations, executor);
+                assertEquals(sequential.getTotalHits(), concurrent.getTotalHits());
+                for (String field : new String[]{"$.age", "$.scores[#]"}) {
+                    FieldStats expected = sequential.getStats(field);
+                    FieldStats actual = concurrent.getStats(field);
+                    assertEquals(expected.getCount(), actual.getCount());
+                    assertEquals(expected.getSum(), actual.getSum(), 0.001);
+                    assertEquals(expected.getMin(), actual.getMin(), 0.001);
+                    assertEquals(expected.getMax(), actual.getMax(), 0.001);
+                }
+                assertEquals(sequential.getHistogram("$.price").toString(), concurrent.getHistogram("$.price").toString());
+                for (Map.Entry<Double, Double> entry : sequential.getPercentiles("$.scores[#]").getValues().entrySet()) {
+                    assertEquals(entry.getValue(), concurrent.getPercentiles("$.scores[#]").getPercentile(entry.getKey()), 0.001);
+                }
+                assertEquals(sequential.getCardinality("$.age").getValue(), concurrent.getCardinality("$.age").getValue());
+                assertEquals(sequential.getCardinality("$.category").getValue(), concurrent.getCardinality("$.category").getValue());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testNoHits() {
+        FieldStats age = db.aggregate(Query.createTermQuery("$.category", "none"), Aggregations.create().stats("$.age")).getStats("$.age");
+        assertEquals(0, age.getCount());
+        assertTrue(Double.isNaN(age.getAvg()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonNumericField() {
+        db.aggregate(Query.MATCH_ALL_DOCS_QUERY, Aggregations.create().stats("$.category"));
+    }
+}
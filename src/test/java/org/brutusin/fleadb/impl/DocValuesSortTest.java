@@ -0,0 +1,95 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.impl;
+
+import java.io.IOException;
+import java.util.List;
+import org.apache.lucene.sandbox.queries.SortedSetSortField;
+import org.brutusin.fleadb.query.Query;
+import org.brutusin.fleadb.sort.Sort;
+import org.brutusin.json.ParseException;
+import org.brutusin.json.spi.JsonCodec;
+import org.brutusin.json.spi.JsonNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public class DocValuesSortTest {
+
+    private static final String SCHEMA = "{\"type\":\"object\",\"properties\":{"
+            + "\"name\":{\"type\":\"string\",\"index\":\"index\",\"docValues\":true},"
+            + "\"age\":{\"type\":\"integer\",\"index\":\"index\",\"docValues\":true},"
+            + "\"tags\":{\"type\":\"array\",\"items\":{\"type\":\"string\"},\"index\":\"index\",\"docValues\":true},"
+            + "\"scores\":{\"type\":\"array\",\"items\":{\"type\":\"integer\"},\"index\":\"index\",\"docValues\":true}}}";
+
+    private static final int MAX_RECORDS = 10;
+
+    private GenericFleaDB db;
+
+    @Before
+    public void setUp() throws IOException, ParseException {
+        db = new GenericFleaDB(JsonCodec.getInstance().parseSchema(SCHEMA));
+        for (int i = 0; i < MAX_RECORDS; i++) {
+            // names and tags not in age order
+            int n = (i * 7) % MAX_RECORDS;
+            db.store(JsonCodec.getInstance().parse("{\"name\":\"name-" + n + "\",\"age\":" + i + ",\"tags\":[\"z\",\"t" + n + "\"],\"scores\":[" + i + "]}"));
+        }
+        db.commit();
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    private List<JsonNode> getAll(Sort sort) {
+        return db.query(Query.MATCH_ALL_DOCS_QUERY, sort).getPage(1, MAX_RECORDS);
+    }
+
+    @Test
+    public void testSingleValuedSort() {
+        List<JsonNode> page = getAll(Sort.by("$.name"));
+        assertEquals(MAX_RECORDS, page.size());
+        for (int i = 0; i < page.size(); i++) {
+            assertEquals("name-" + i, page.get(i).get("name").asString());
+        }
+        page = getAll(Sort.by("$.age", true));
+        for (int i = 0; i < page.size(); i++) {
+            assertEquals(MAX_RECORDS - 1 - i, (long) page.get(i).get("age").asLong());
+        }
+    }
+
+    @Test
+    public void testMultievaluatedStringSort() {
+        assertTrue(Sort.by("$.tags[#]").getLuceneSort(db.getSchema()).getSort()[0] instanceof SortedSetSortField);
+        // Sorted by the minimum value of each document
+        List<JsonNode> page = getAll(Sort.by("$.tags[#]"));
+        assertEquals(MAX_RECORDS, page.size());
+        for (int i = 0; i < page.size(); i++) {
+            assertEquals("name-" + i, page.get(i).get("name").asString());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMultievaluatedNumericSort() {
+        db.query(Query.MATCH_ALL_DOCS_QUERY, Sort.by("$.scores[#]"));
+    }
+}
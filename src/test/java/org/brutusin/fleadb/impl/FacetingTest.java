@@ -16,10 +16,15 @@
 package org.brutusin.fleadb.impl;
 
 import java.util.List;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.brutusin.fleadb.facet.DrillSidewaysResponse;
 import org.brutusin.fleadb.facet.FacetMultiplicities;
 import org.brutusin.fleadb.facet.FacetResponse;
+import org.brutusin.fleadb.facet.FacetSampling;
+import org.brutusin.fleadb.facet.FacetSelections;
 import org.brutusin.fleadb.facet.FacetValueResponse;
 import org.brutusin.fleadb.query.Query;
+import org.brutusin.fleadb.record.Record;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -57,6 +62,135 @@ public class FacetingTest extends FleaDBTest {
         assertTrue(frs.size() == 2);
     }
 
+    @Test
+    public void testDrillSideways() {
+        Query q = Query.MATCH_ALL_DOCS_QUERY;
+        DrillSidewaysResponse<Record> resp = db.drillSideways(q, FacetSelections.select("$.categories[#]", "mod2:0"), FacetMultiplicities.set("$.categories[#]", MAX_FACET_VALUES), null, 1, 3);
+        assertEquals(getMaxRecords() / 2, resp.getTotalHits());
+        assertEquals(3, resp.getElements().size());
+        // Selected facet is counted sideways, so alternatives keep their multiplicities
+        List<FacetValueResponse> fvs = resp.getFacetValues().get(0).getFacetValues();
+        for (int i = 0; i < fvs.size(); i++) {
+            FacetValueResponse fv = fvs.get(i);
+            assertEquals(db.getFacetValueMultiplicity("$.categories[#]", fv.getValue(), q), fv.getMultiplicity(), 0.1);
+        }
+    }
+
+    @Test
+    public void testSampledFacets() {
+        Query q = Query.MATCH_ALL_DOCS_QUERY;
+        FacetMultiplicities fm = FacetMultiplicities.set("$.categories[#]", MAX_FACET_VALUES);
+        assertTrue(db.getFacetValues(q, fm, FacetSampling.sampleSize(getMaxRecords() / 4).seed(1)).get(0).isEstimate());
+        List<FacetResponse> exhaustive = db.getFacetValues(q, fm);
+        List<FacetResponse> unsampled = db.getFacetValues(q, fm, FacetSampling.sampleSize(getMaxRecords()));
+        assertFalse(exhaustive.get(0).isEstimate());
+        assertFalse(unsampled.get(0).isEstimate());
+        assertEquals(exhaustive.get(0).getFacetValues().size(), unsampled.get(0).getFacetValues().size());
+        for (int i = 0; i < exhaustive.get(0).getFacetValues().size(); i++) {
+            assertEquals(exhaustive.get(0).getFacetValues().get(i).getMultiplicity(), unsampled.get(0).getFacetValues().get(i).getMultiplicity(), 0.1);
+        }
+
+        // Amplified counts are the sampled ones scaled by totalHits/sampleSize
+        int sampleSize = getMaxRecords() / 4;
+        double amplification = (double) getMaxRecords() / sampleSize;
+        List<FacetResponse> amplified = db.getFacetValues(q, fm, FacetSampling.sampleSize(sampleSize).seed(1));
+        List<FacetResponse> sampled = db.getFacetValues(q, fm, FacetSampling.sampleSize(sampleSize).seed(1).amplify(false));
+        assertEquals(amplified.toString(), db.getFacetValues(q, fm, FacetSampling.sampleSize(sampleSize).seed(1)).toString());
+        assertEquals(amplified.get(0).getFacetValues().size(), sampled.get(0).getFacetValues().size());
+        double amplifiedSum = 0;
+        double sampledSum = 0;
+        for (int i = 0; i < amplified.get(0).getFacetValues().size(); i++) {
+            FacetValueResponse fv = amplified.get(0).getFacetValues().get(i);
+            FacetValueResponse sfv = sampled.get(0).getFacetValues().get(i);
+            assertEquals(fv.getValue(), sfv.getValue());
+            assertEquals(sfv.getMultiplicity() * amplification, fv.getMultiplicity(), 0.001);
+            amplifiedSum += fv.getMultiplicity();
+            sampledSum += sfv.getMultiplicity();
+        }
+        double exhaustiveSum = 0;
+        for (FacetValueResponse fv : exhaustive.get(0).getFacetValues()) {
+            exhaustiveSum += fv.getMultiplicity();
+        }
+        // Every record has two categories
+        assertEquals(2 * sampleSize, sampledSum, 2);
+        assertEquals(exhaustiveSum, amplifiedSum, 2 * amplification);
+    }
+
+    @Test
+    public void testFacetValuesStartingWith() {
+        Query q = Query.MATCH_ALL_DOCS_QUERY;
+        FacetResponse fr = db.getFacetValuesStartingWith("$.categories[#]", "mod3", q, 2).get(0);
+        assertEquals(3, fr.getNumFacetValues());
+        assertEquals(2, fr.getFacetValues().size());
+        for (FacetValueResponse fv : fr.getFacetValues()) {
+            assertTrue(fv.getValue().startsWith("mod3"));
+            assertEquals(db.getFacetValueMultiplicity("$.categories[#]", fv.getValue(), q), fv.getMultiplicity(), 0.1);
+        }
+        fr = db.getFacetValuesStartingWith("$.categories[#]", "mod2:1", q, 5).get(0);
+        assertEquals("mod2:1", fr.getFacetValues().get(0).getValue());
+        assertEquals(0, db.getFacetValuesStartingWith("$.categories[#]", "none", q, 5).get(0).getNumFacetValues());
+    }
+
+    @Test
+    public void testFacetCache() {
+        Query q = Query.MATCH_ALL_DOCS_QUERY;
+        long misses = db.getFacetCacheStats().getMisses();
+        List<FacetResponse> frs = db.getFacetValues(q, MAX_FACET_VALUES);
+        long hits = db.getFacetCacheStats().getHits();
+        assertEquals(misses + 1, db.getFacetCacheStats().getMisses());
+        assertEquals(frs.toString(), db.getFacetValues(q, MAX_FACET_VALUES).toString());
+        assertEquals(hits + 1, db.getFacetCacheStats().getHits());
+        assertTrue(db.getFacetCacheStats().getEstimatedBytes() > 0);
+        // New searcher invalidates the cache
+        Record r = new Record();
+        r.setCategories(new String[]{"mod2:0"});
+        db.store(r);
+        db.commit();
+        List<FacetResponse> updated = db.getFacetValues(q, MAX_FACET_VALUES);
+        assertEquals(misses + 2, db.getFacetCacheStats().getMisses());
+        assertFalse(frs.toString().equals(updated.toString()));
+
+        // Requests served by older readers bypass the cache, keeping the current entries
+        FacetCache cache = new FacetCache(10);
+        FacetCache.Key key = new FacetCache.Key(new MatchAllDocsQuery(), null, null);
+        cache.put(2, key, updated);
+        assertNull(cache.get(1, key));
+        cache.put(1, key, frs);
+        assertEquals(1, cache.getStats().getSize());
+        assertEquals(updated.toString(), cache.get(2, key).toString());
+        assertNull(cache.get(3, key));
+        assertEquals(0, cache.getStats().getSize());
+    }
+
+    @Test
+    public void testFilteredFacetValuesStartingWith() {
+        List<FacetResponse> frs = db.getFacetValuesStartingWith("$.categories[#]", "mod3", Query.createTermQuery("$.categories[#]", "mod2:0"), MAX_FACET_VALUES);
+        assertEquals(1, frs.size());
+        List<FacetValueResponse> values = frs.get(0).getFacetValues();
+        assertEquals(3, values.size());
+        assertEquals("mod3:0", values.get(0).getValue());
+        assertEquals(4, values.get(0).getMultiplicity(), 0.1);
+        assertEquals(3, values.get(1).getMultiplicity(), 0.1);
+        assertEquals(3, values.get(2).getMultiplicity(), 0.1);
+        values = db.getFacetValuesStartingWith("$.categories[#]", "mod3:1", Query.MATCH_ALL_DOCS_QUERY, MAX_FACET_VALUES).get(0).getFacetValues();
+        assertEquals(1, values.size());
+        assertEquals(7, values.get(0).getMultiplicity(), 0.1);
+        assertTrue(db.getFacetValuesStartingWith("$.categories[#]", "unexisting", Query.MATCH_ALL_DOCS_QUERY, MAX_FACET_VALUES).get(0).getFacetValues().isEmpty());
+    }
+
+    @Test
+    public void testFacetValuesStartingWithAfterCommit() {
+        Query q = Query.MATCH_ALL_DOCS_QUERY;
+        assertEquals(3, db.getFacetValuesStartingWith("$.categories[#]", "mod3", q, 5).get(0).getNumFacetValues());
+        Record r = new Record();
+        r.setCategories(new String[]{"mod3:new"});
+        db.store(r);
+        db.commit();
+        FacetResponse fr = db.getFacetValuesStartingWith("$.categories[#]", "mod3", q, 5).get(0);
+        assertEquals(4, fr.getNumFacetValues());
+        assertEquals(1, db.getFacetValuesStartingWith("$.categories[#]", "mod3:new", q, 5).get(0).getFacetValues().get(0).getMultiplicity(), 0.1);
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testInvalidFacet() {
         Query q = Query.MATCH_ALL_DOCS_QUERY;
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.brutusin.fleadb.facet.FacetMultiplicities;
+import org.brutusin.fleadb.facet.FacetResponse;
+import org.brutusin.fleadb.query.Query;
+import org.brutusin.fleadb.record.Record;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public class FleaDBBuilderTest {
+
+    @Test
+    public void testParallelBuild() throws IOException {
+        int maxRecords = 5000;
+        List<Record> records = new ArrayList<Record>();
+        for (int i = 0; i < maxRecords; i++) {
+            Record r = new Record();
+            r.setId(String.valueOf(i));
+            r.setAge(i);
+            r.setCategories(new String[]{"mod2:" + i % 2, "mod3:" + i % 3});
+            records.add(r);
+        }
+        File indexFolder = new File(System.getProperty("java.io.tmpdir"), "flea-db-builder-" + System.nanoTime());
+        try {
+            FleaDBBuilder.build(indexFolder, Record.class, records, 4);
+            ObjectFleaDB<Record> db = new ObjectFleaDB<Record>(indexFolder, Record.class);
+            try {
+                assertEquals(maxRecords, db.query(Query.MATCH_ALL_DOCS_QUERY).getTotalHits());
+                assertEquals(1, db.query(Query.createTermQuery("$.id", "42")).getTotalHits());
+                List<FacetResponse> frs = db.getFacetValues(Query.MATCH_ALL_DOCS_QUERY, FacetMultiplicities.set("$.categories[#]", 10));
+                assertEquals(5, frs.get(0).getNumFacetValues());
+                assertEquals(maxRecords / 2, db.getFacetValueMultiplicity("$.categories[#]", "mod2:0", Query.MATCH_ALL_DOCS_QUERY), 0.1);
+            } finally {
+                db.close();
+            }
+        } finally {
+            FleaDBBuilder.delete(indexFolder);
+        }
+    }
+
+    @Test
+    public void testFailedBuildCleanup() throws IOException {
+        final List<Record> records = new ArrayList<Record>();
+        for (int i = 0; i < 100; i++) {
+            Record r = new Record();
+            r.setId(String.valueOf(i));
+            records.add(r);
+        }
+        Iterable<Record> failing = new Iterable<Record>() {
+            @Override
+            public Iterator<Record> iterator() {
+                final Iterator<Record> it = records.iterator();
+                return new Iterator<Record>() {
+                    @Override
+                    public boolean hasNext() {
+                        return true;
+                    }
+
+                    @Override
+                    public Record next() {
+                        if (it.hasNext()) {
+                            return it.next();
+                        }
+                        throw new IllegalStateException("Source failure");
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+        File indexFolder = new File(System.getProperty("java.io.tmpdir"), "flea-db-builder-" + System.nanoTime());
+        try {
+            try {
+                FleaDBBuilder.build(indexFolder, Record.class, failing, 2);
+                fail("Build should have failed");
+            } catch (IllegalStateException ex) {
+                // expected
+            }
+            assertFalse(indexFolder.exists());
+            FleaDBBuilder.build(indexFolder, Record.class, records, 2);
+            ObjectFleaDB<Record> db = new ObjectFleaDB<Record>(indexFolder, Record.class);
+            try {
+                assertEquals(records.size(), db.query(Query.MATCH_ALL_DOCS_QUERY).getTotalHits());
+            } finally {
+                db.close();
+            }
+        } finally {
+            FleaDBBuilder.delete(indexFolder);
+        }
+    }
+}
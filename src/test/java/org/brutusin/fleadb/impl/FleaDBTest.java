@@ -19,6 +19,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import org.brutusin.fleadb.facet.FacetingMode;
 import org.brutusin.fleadb.record.Component;
 import org.brutusin.fleadb.record.Record;
 import org.junit.After;
@@ -39,7 +40,7 @@ public class FleaDBTest {
     @Before
     public void setUp() {
         try {
-            db = new ObjectFleaDB(getIndexFolder() , Record.class);
+            db = new ObjectFleaDB(getIndexFolder(), Record.class, getFacetingMode());
             for (int i = 0; i < getMaxRecords(); i++) {
                 Record r = new Record();
                 r.setId(String.valueOf(i));
@@ -63,6 +64,10 @@ public class FleaDBTest {
         return null;
     }
 
+    protected FacetingMode getFacetingMode(){
+        return null;
+    }
+
     @After
     public void tearDown() {
         db.close();
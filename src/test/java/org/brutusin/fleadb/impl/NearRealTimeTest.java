@@ -0,0 +1,153 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.impl;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.lucene.search.IndexSearcher;
+import org.brutusin.fleadb.pagination.PaginatorImpl;
+import org.brutusin.fleadb.pagination.SearcherSource;
+import org.brutusin.fleadb.query.Query;
+import org.brutusin.json.ParseException;
+import org.brutusin.json.spi.JsonCodec;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public class NearRealTimeTest {
+
+    private static final String SCHEMA = "{\"type\":\"object\",\"properties\":{\"id\":{\"type\":\"string\",\"index\":\"id\"},\"value\":{\"type\":\"integer\",\"index\":\"index\"}}}";
+
+    private GenericFleaDB db;
+
+    @Before
+    public void setUp() throws IOException, ParseException {
+        db = new GenericFleaDB(JsonCodec.getInstance().parseSchema(SCHEMA));
+    }
+
+    @After
+    public void tearDown() {
+        if (db != null) {
+            db.close();
+        }
+    }
+
+    private void store(String id) throws ParseException {
+        db.store(JsonCodec.getInstance().parse("{\"id\":\"" + id + "\",\"value\":1}"));
+    }
+
+    private int count() {
+        return db.query(Query.MATCH_ALL_DOCS_QUERY).getTotalHits();
+    }
+
+    private static boolean isRefresherAlive() {
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.isAlive() && "flea-db-refresher".equals(t.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void testRefresh() throws ParseException {
+        db.setNearRealTime(true, 0);
+        assertEquals(0, count());
+        store("a");
+        assertEquals(0, count());
+        db.refresh();
+        assertEquals(1, count());
+        store("b");
+        assertEquals(1, count());
+        db.refresh();
+        assertEquals(2, count());
+    }
+
+    @Test
+    public void testBackgroundRefresh() throws Exception {
+        db.setNearRealTime(true, 20);
+        assertEquals(0, count());
+        store("a");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (count() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, count());
+    }
+
+    @Test
+    public void testToggleWhileQuerying() throws Exception {
+        store("a");
+        db.commit();
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        while (running.get()) {
+                            assertEquals(1, count());
+                        }
+                    } catch (Throwable th) {
+                        error.compareAndSet(null, th);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        try {
+            for (int i = 0; i < 50; i++) {
+                db.setNearRealTime(i % 2 == 0, 0);
+                db.refresh();
+            }
+        } finally {
+            running.set(false);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+        if (error.get() != null) {
+            throw new AssertionError(error.get());
+        }
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        db.setNearRealTime(true, 20);
+        store("a");
+        assertTrue(isRefresherAlive());
+        SearcherSource source = ((PaginatorImpl) db.query(Query.MATCH_ALL_DOCS_QUERY)).getSearcherSource();
+        IndexSearcher searcher = source.acquire();
+        source.release(searcher);
+        assertTrue(searcher.getIndexReader().getRefCount() > 0);
+        db.close();
+        db = null;
+        assertEquals(0, searcher.getIndexReader().getRefCount());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (isRefresherAlive() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(isRefresherAlive());
+    }
+}
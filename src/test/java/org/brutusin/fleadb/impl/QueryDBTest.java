@@ -15,11 +15,38 @@
  */
 package org.brutusin.fleadb.impl;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.brutusin.fleadb.Schema;
+import org.brutusin.fleadb.bulk.BulkOptions;
+import org.brutusin.fleadb.record.Component;
 import org.brutusin.fleadb.record.Record;
+import org.brutusin.fleadb.pagination.ExportOptions;
+import org.brutusin.fleadb.pagination.Page;
 import org.brutusin.fleadb.pagination.Paginator;
+import org.brutusin.fleadb.pagination.PaginatorImpl;
+import org.brutusin.fleadb.pagination.SearcherSource;
+import org.brutusin.fleadb.pagination.RecordIterator;
+import org.brutusin.fleadb.query.BooleanQuery;
+import org.brutusin.fleadb.query.FilterCache;
 import org.brutusin.fleadb.query.Query;
 import org.brutusin.fleadb.sort.Sort;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.facet.FacetField;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.IndexSearcher;
+import org.brutusin.commons.Pair;
+import org.brutusin.json.ParseException;
+import org.brutusin.json.spi.JsonCodec;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -73,6 +100,108 @@ public class QueryDBTest extends FleaDBTest {
         }
     }
 
+    @Test
+    public void testTermsQuery() {
+        List<String> ids = new ArrayList<String>();
+        List<Long> ages = new ArrayList<Long>();
+        for (int i = 0; i < getMaxRecords(); i += 2) {
+            ids.add(String.valueOf(i));
+            ages.add((long) i);
+        }
+        ids.add("unexisting");
+        assertEquals(ages.size(), db.query(Query.createTermsQuery("$.id", ids)).getTotalHits());
+        assertEquals(ages.size(), db.query(Query.createIntegerTermsQuery("$.age", ages)).getTotalHits());
+        assertEquals(0, db.query(Query.createTermsQuery("$.id", new ArrayList<String>())).getTotalHits());
+    }
+
+    @Test
+    public void testSingleResult() {
+        assertEquals(7, db.getSingleResult(Query.createTermQuery("$.id", "7")).getAge());
+        try {
+            db.getSingleResult(Query.createTermQuery("$.id", "unexisting"));
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // expected: no hits
+        }
+        try {
+            db.getSingleResult(Query.createTermQuery("$.categories[#]", "mod2:0"));
+            fail();
+        } catch (IllegalArgumentException ex) {
+            // expected: several hits
+        }
+    }
+
+    @Test
+    public void testTotalHitsAfterGetPage() {
+        Query q = Query.createTermQuery("$.categories[#]", "mod2:0");
+        int expected = db.query(q).getTotalHits();
+        assertEquals(getMaxRecords() / 2, expected);
+
+        final PaginatorImpl<Record> paginator = (PaginatorImpl<Record>) db.query(q, Sort.by("$.age"));
+        final int[] searches = new int[1];
+        SearcherSource countingSource = new SearcherSource() {
+            public IndexSearcher acquire() throws IOException {
+                searches[0]++;
+                return paginator.getSearcherSource().acquire();
+            }
+
+            public void release(IndexSearcher searcher) throws IOException {
+                paginator.getSearcherSource().release(searcher);
+            }
+        };
+        Paginator<Record> counting = new PaginatorImpl<Record>(countingSource, paginator.getTransformer(), paginator.getQ(), paginator.getSort());
+        assertEquals(6, counting.getPage(2, 3).get(0).getAge());
+        assertEquals(1, searches[0]);
+        assertEquals(expected, counting.getTotalHits());
+        assertEquals(1, searches[0]);
+
+        // Next page is retrieved from the memento of the previous one
+        List<Record> page = counting.getPage(3, 3);
+        assertEquals(12, page.get(0).getAge());
+        assertEquals(2, searches[0]);
+        assertEquals(expected, counting.getTotalHits());
+        assertEquals(2, searches[0]);
+    }
+
+    @Test
+    public void testCompiledQueries() throws ParseException {
+        Schema schema = db.getSchema();
+        Query q = Query.createTermQuery("$.id", "0");
+        org.apache.lucene.search.Query compiled = q.getLuceneQuery(schema);
+        assertSame(compiled, q.getLuceneQuery(schema));
+        Schema otherSchema = new SchemaImpl(schema.getJSONSChema());
+        org.apache.lucene.search.Query recompiled = q.getLuceneQuery(otherSchema);
+        assertNotSame(compiled, recompiled);
+        assertEquals(compiled, recompiled);
+
+        BooleanQuery bq = new BooleanQuery();
+        bq.add(q, BooleanClause.Occur.SHOULD);
+        assertEquals(1, db.query(bq).getTotalHits());
+        bq.add(Query.createTermQuery("$.id", "1"), BooleanClause.Occur.SHOULD);
+        assertEquals(2, db.query(bq).getTotalHits());
+
+        Query wildcard = Query.createWildcardQuery("$.id", "1*");
+        assertSame(wildcard.getLuceneQuery(schema), Query.createWildcardQuery("$.id", "1*").getLuceneQuery(schema));
+        assertEquals(11, db.query(wildcard).getTotalHits());
+        Query regexp = Query.createRegExpQuery("$.id", "1[0-9]");
+        assertSame(regexp.getLuceneQuery(schema), Query.createRegExpQuery("$.id", "1[0-9]").getLuceneQuery(schema));
+        assertNotSame(regexp.getLuceneQuery(schema), Query.createRegExpQuery("$.id", "1[0-8]").getLuceneQuery(schema));
+        assertEquals(10, db.query(regexp).getTotalHits());
+    }
+
+    @Test
+    public void testFilterClause() {
+        BooleanQuery q = new BooleanQuery();
+        q.add(Query.createIntegerRangeQuery("$.age", 0, 9, true, true), BooleanClause.Occur.MUST);
+        q.addFilter(Query.createTermQuery("$.categories[#]", "mod2:0"));
+        long misses = FilterCache.getInstance().getStats().getMisses();
+        assertEquals(5, db.query(q).getTotalHits());
+        long hits = FilterCache.getInstance().getStats().getHits();
+        assertTrue(FilterCache.getInstance().getStats().getMisses() > misses);
+        assertEquals(5, db.query(q).getTotalHits());
+        assertTrue(FilterCache.getInstance().getStats().getHits() > hits);
+    }
+
     @Test
     public void testSort() {
         Query q = Query.MATCH_ALL_DOCS_QUERY;
@@ -106,6 +235,264 @@ public class QueryDBTest extends FleaDBTest {
         assertTrue(counter == getMaxRecords());
     }
 
+    @Test
+    public void testCursorPagination() {
+        Query q = Query.MATCH_ALL_DOCS_QUERY;
+        Paginator<Record> paginator = db.query(q, Sort.by("$.age"));
+        int pageSize = 3;
+        int counter = 0;
+        int prevAge = Integer.MIN_VALUE;
+        Page<Record> page;
+        do {
+            page = paginator.nextPage(pageSize);
+            assertTrue(page.getElements().size() <= pageSize);
+            for (Record record : page.getElements()) {
+                assertTrue(record.getAge() > prevAge);
+                prevAge = record.getAge();
+                counter++;
+            }
+        } while (page.hasNext());
+        assertEquals(getMaxRecords(), counter);
+    }
+
+    @Test
+    public void testNextPageExhausted() {
+        Paginator<Record> paginator = db.query(Query.MATCH_ALL_DOCS_QUERY, Sort.by("$.age"));
+        int counter = 0;
+        int pages = 0;
+        while (true) {
+            Page<Record> page = paginator.nextPage(7);
+            if (page.getElements().isEmpty()) {
+                assertNull(page.getCursor());
+                break;
+            }
+            counter += page.getElements().size();
+            assertTrue(++pages <= getMaxRecords());
+        }
+        assertEquals(getMaxRecords(), counter);
+        assertTrue(paginator.nextPage(7).getElements().isEmpty());
+    }
+
+    @Test
+    public void testCursorRejectedAfterCommit() {
+        Paginator<Record> paginator = db.query(Query.MATCH_ALL_DOCS_QUERY, Sort.by("$.age"));
+        Page<Record> page = paginator.getPage(null, 3);
+        assertNotNull(page.getCursor());
+        Record r = new Record();
+        r.setId("new");
+        r.setAge(getMaxRecords());
+        db.store(r);
+        db.commit();
+        try {
+            paginator.getPage(page.getCursor(), 3);
+            fail("Stale cursor accepted");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+        assertEquals(3, paginator.getPage(null, 3).getElements().size());
+    }
+
+    @Test
+    public void testIterator() {
+        RecordIterator<Record> it = db.iterator(Query.createTermQuery("$.categories[#]", "mod2:0"));
+        int count = 0;
+        while (it.hasNext()) {
+            assertTrue(it.next().getAge() % 2 == 0);
+            count++;
+        }
+        assertEquals(getMaxRecords() / 2, count);
+        assertFalse(db.iterator(Query.createTermQuery("$.id", "unexisting")).hasNext());
+    }
+
+    @Test
+    public void testIteratorSplit() {
+        Record r = new Record();
+        r.setId("last");
+        db.store(r);
+        db.commit();
+        RecordIterator<Record> it = db.iterator(Query.MATCH_ALL_DOCS_QUERY);
+        RecordIterator<Record> split = it.trySplit();
+        assertNotNull(split);
+        Set<String> ids = new HashSet<String>();
+        while (it.hasNext()) {
+            assertTrue(ids.add(it.next().getId()));
+        }
+        int splitCount = 0;
+        while (split.hasNext()) {
+            assertTrue(ids.add(split.next().getId()));
+            splitCount++;
+        }
+        assertTrue(splitCount > 0);
+        assertEquals(getMaxRecords() + 1, ids.size());
+
+        // Closing one iterator keeps the snapshot used by the other
+        it = db.iterator(Query.MATCH_ALL_DOCS_QUERY);
+        split = it.trySplit();
+        assertNotNull(split);
+        it.close();
+        assertFalse(it.hasNext());
+        r = new Record();
+        r.setId("newer");
+        db.store(r);
+        db.commit();
+        int count = 0;
+        while (split.hasNext()) {
+            assertFalse("newer".equals(split.next().getId()));
+            count++;
+        }
+        assertEquals(splitCount, count);
+    }
+
+    @Test
+    public void testSortedIterator() {
+        // Tiny memory budget to force spilling runs to disk
+        ExportOptions[] options = {null, ExportOptions.create().maxMemoryMB(0.001)};
+        for (ExportOptions option : options) {
+            RecordIterator<Record> it = db.iterator(Query.MATCH_ALL_DOCS_QUERY, Sort.by("$.age", true), option);
+            int count = 0;
+            int prevAge = Integer.MAX_VALUE;
+            while (it.hasNext()) {
+                Record record = it.next();
+                assertTrue(record.getAge() <= prevAge);
+                prevAge = record.getAge();
+                count++;
+            }
+            assertEquals(getMaxRecords(), count);
+            assertNull(it.trySplit());
+        }
+    }
+
+    @Test
+    public void testSortedIteratorMultiPassMerge() throws IOException {
+        File tempFolder = File.createTempFile("flea-db-runs", "");
+        tempFolder.delete();
+        tempFolder.mkdirs();
+        try {
+            // Runs of a couple of keys, merged two at a time in several passes
+            ExportOptions options = ExportOptions.create().maxMemoryMB(0.0001).maxMergeFanIn(2).tempFolder(tempFolder);
+            RecordIterator<Record> it = db.iterator(Query.MATCH_ALL_DOCS_QUERY, Sort.by("$.age"), options);
+            assertTrue(tempFolder.list().length <= 2);
+            int age = 0;
+            while (it.hasNext()) {
+                assertEquals(age++, it.next().getAge());
+            }
+            assertEquals(getMaxRecords(), age);
+            assertEquals(0, tempFolder.list().length);
+        } finally {
+            FleaDBBuilder.delete(tempFolder);
+        }
+    }
+
+    @Test
+    public void testStoreAll() {
+        List<Record> records = new ArrayList<Record>();
+        for (int i = 0; i < 100; i++) {
+            Record r = new Record();
+            r.setId("bulk-" + i);
+            r.setAge(i);
+            r.setCategories(new String[]{"bulk"});
+            records.add(r);
+        }
+        long stored = db.storeAll(records, BulkOptions.create().threads(3).batchSize(7));
+        db.commit();
+        assertEquals(records.size(), stored);
+        assertEquals(records.size(), db.query(Query.createTermQuery("$.categories[#]", "bulk")).getTotalHits());
+        assertEquals(getMaxRecords() + records.size(), db.query(Query.MATCH_ALL_DOCS_QUERY).getTotalHits());
+    }
+
+    @Test
+    public void testObjectRoundTrip() {
+        Record r = new Record();
+        r.setId("roundtrip");
+        r.setAge(77);
+        r.setCategories(new String[]{"a", "b", "c"});
+        Map<String, Component> components = new HashMap<String, Component>();
+        components.put("first", new Component("one", 101));
+        components.put("second", new Component("two", 102));
+        r.setComponents(components);
+        Set<Integer> integerSet = new HashSet<Integer>();
+        integerSet.add(3);
+        integerSet.add(5);
+        r.setIntegerSet(integerSet);
+        r.setMainComponent(new Component("main", 7));
+        db.store(r);
+        db.commit();
+
+        Record stored = db.getSingleResult(Query.createTermQuery("$.id", "roundtrip"));
+        assertEquals(77, stored.getAge());
+        assertArrayEquals(r.getCategories(), stored.getCategories());
+        assertEquals(integerSet, stored.getIntegerSet());
+        assertEquals(2, stored.getComponents().size());
+        assertEquals("two", stored.getComponents().get("second").getName());
+        assertEquals(102, stored.getComponents().get("second").getNumber());
+        assertEquals("main", stored.getMainComponent().getName());
+        assertEquals(7, stored.getMainComponent().getNumber());
+
+        // Index fields extracted from nested and multivalued properties
+        assertEquals(1, db.query(Query.createTermQuery("$.categories[#]", "b")).getTotalHits());
+        assertEquals(1, db.query(Query.createIntegerRangeQuery("$.integerSet[#]", 5, 5, true, true)).getTotalHits());
+        assertEquals(1, db.query(Query.createIntegerRangeQuery("$.components[*].number", 101, 101, true, true)).getTotalHits());
+    }
+
+    @Test
+    public void testDirectObjectBinding() throws ParseException {
+        Record r = new Record();
+        r.setId("direct");
+        r.setAge(33);
+        r.setCategories(new String[]{"a", "b"});
+        Map<String, Component> components = new HashMap<String, Component>();
+        components.put("first", new Component("one", 101));
+        components.put("second", new Component("two", 102));
+        r.setComponents(components);
+        Set<Integer> integerSet = new HashSet<Integer>();
+        integerSet.add(3);
+        r.setIntegerSet(integerSet);
+        JsonTransformer transformer = new JsonTransformer(db.getSchema());
+        String json = JsonCodec.getInstance().transform(r);
+        Pair<Document, List<FacetField>> direct = transformer.objectToDocument(r, json);
+        assertNotNull(direct);
+        Pair<Document, List<FacetField>> parsed = transformer.entityToDocument(JsonCodec.getInstance().parse(json), json);
+        assertEquals(toSortedStrings(parsed.getElement1().getFields()), toSortedStrings(direct.getElement1().getFields()));
+        assertEquals(toSortedStrings(parsed.getElement2()), toSortedStrings(direct.getElement2()));
+    }
+
+    @Test
+    public void testFieldsSharingPathPrefix() throws ParseException {
+        JsonTransformer transformer = new JsonTransformer(db.getSchema());
+        String json = "{\"id\":\"prefix\",\"age\":1,\"components\":{\"first\":{\"name\":\"one\",\"number\":101},\"second\":{\"name\":\"two\",\"number\":102}}}";
+        Pair<Document, List<FacetField>> pair = transformer.entityToDocument(JsonCodec.getInstance().parse(json), json);
+        Set<String> keys = new HashSet<String>();
+        for (IndexableField field : pair.getElement1().getFields("$.components")) {
+            if (field.fieldType().indexed()) {
+                keys.add(field.stringValue());
+            }
+        }
+        assertEquals(new HashSet<String>(Arrays.asList("first", "second")), keys);
+        Set<Long> numbers = new HashSet<Long>();
+        for (IndexableField field : pair.getElement1().getFields("$.components[*].number")) {
+            if (field.fieldType().indexed()) {
+                numbers.add(field.numericValue().longValue());
+            }
+        }
+        assertEquals(new HashSet<Long>(Arrays.asList(101l, 102l)), numbers);
+        Set<String> names = new HashSet<String>();
+        for (FacetField facet : pair.getElement2()) {
+            if (facet.dim.equals("$.components[*].name")) {
+                names.add(facet.path[0]);
+            }
+        }
+        assertEquals(new HashSet<String>(Arrays.asList("one", "two")), names);
+    }
+
+    private static List<String> toSortedStrings(List<?> list) {
+        List<String> ret = new ArrayList<String>();
+        for (Object element : list) {
+            ret.add(element.toString());
+        }
+        Collections.sort(ret);
+        return ret;
+    }
+
     @Test(expected = IllegalArgumentException.class)
     public void testUnkownFieldSort() {
         Query q = Query.createIntegerRangeQuery("$.age3", 0, 0, true, true);
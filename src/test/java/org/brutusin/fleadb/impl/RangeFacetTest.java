@@ -0,0 +1,89 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.impl;
+
+import java.io.IOException;
+import java.util.List;
+import org.brutusin.fleadb.facet.FacetMultiplicities;
+import org.brutusin.fleadb.facet.FacetRange;
+import org.brutusin.fleadb.facet.FacetRanges;
+import org.brutusin.fleadb.facet.FacetResponse;
+import org.brutusin.fleadb.query.Query;
+import org.brutusin.json.ParseException;
+import org.brutusin.json.spi.JsonCodec;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public class RangeFacetTest {
+
+    private static final String SCHEMA = "{\"type\":\"object\",\"properties\":{"
+            + "\"category\":{\"type\":\"string\",\"index\":\"facet\"},"
+            + "\"age\":{\"type\":\"integer\",\"index\":\"facet\"},"
+            + "\"price\":{\"type\":\"number\",\"index\":\"facet\",\"ranges\":[{\"label\":\"cheap\",\"max\":10},{\"min\":10}]}}}";
+
+    private static final int MAX_RECORDS = 20;
+
+    private GenericFleaDB db;
+
+    @Before
+    public void setUp() throws IOException, ParseException {
+        db = new GenericFleaDB(JsonCodec.getInstance().parseSchema(SCHEMA));
+        for (int i = 0; i < MAX_RECORDS; i++) {
+            db.store(JsonCodec.getInstance().parse("{\"category\":\"c" + i % 2 + "\",\"age\":" + i + ",\"price\":" + i + ".5}"));
+        }
+        db.commit();
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void testSchemaRanges() {
+        List<FacetResponse> frs = db.getFacetValues(Query.MATCH_ALL_DOCS_QUERY, 10);
+        assertEquals(2, frs.size());
+        FacetResponse price = frs.get(1);
+        assertEquals("$.price", price.getFacetName());
+        assertEquals("cheap", price.getFacetValues().get(0).getValue());
+        assertEquals(10, price.getFacetValues().get(0).getMultiplicity(), 0.1);
+        assertEquals(10, price.getFacetValues().get(1).getMultiplicity(), 0.1);
+    }
+
+    @Test
+    public void testRequestRanges() {
+        List<FacetResponse> frs = db.getFacetValues(Query.MATCH_ALL_DOCS_QUERY,
+                FacetMultiplicities.set("$.category", 10),
+                FacetRanges.set("$.age", FacetRange.create(0, 5), FacetRange.create(5, null)), null);
+        assertEquals(2, frs.size());
+        FacetResponse age = frs.get(1);
+        assertEquals(2, age.getNumFacetValues());
+        assertEquals("[0,5)", age.getFacetValues().get(0).getValue());
+        assertEquals(5, age.getFacetValues().get(0).getMultiplicity(), 0.1);
+        assertEquals(15, age.getFacetValues().get(1).getMultiplicity(), 0.1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingRanges() {
+        db.getFacetValues(Query.MATCH_ALL_DOCS_QUERY, null, FacetRanges.set("$.age"), null);
+    }
+}
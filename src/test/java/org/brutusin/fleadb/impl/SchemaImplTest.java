@@ -15,6 +15,8 @@
  */
 package org.brutusin.fleadb.impl;
 
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import org.apache.lucene.document.Document;
@@ -85,6 +87,47 @@ public class SchemaImplTest {
         System.out.println(entityToDocument);
     }
 
+    @Test
+    public void testDocValuesFields() throws ParseException {
+        SchemaImpl s = new SchemaImpl(JsonCodec.getInstance().parseSchema("{\"type\":\"object\",\"properties\":{"
+                + "\"name\":{\"type\":\"string\",\"index\":\"index\",\"docValues\":true},"
+                + "\"age\":{\"type\":\"integer\",\"index\":\"index\",\"docValues\":true},"
+                + "\"tags\":{\"type\":\"array\",\"items\":{\"type\":\"string\"},\"index\":\"index\",\"docValues\":true},"
+                + "\"plain\":{\"type\":\"string\",\"index\":\"index\"}}}"));
+        assertEquals(new HashSet<String>(Arrays.asList("$.name", "$.age", "$.tags[#]")), s.getDocValuesFields());
+        assertTrue(s.getIndexFields().containsKey("$.plain"));
+        assertFalse(s.getDocValuesFields().contains("$.plain"));
+    }
+
+    @Test
+    public void testInvalidRangeFacets() {
+        assertInvalidSchema("\"prices\":{\"type\":\"array\",\"items\":{\"type\":\"number\"},\"index\":\"facet\"}", "multievaluated");
+        assertInvalidSchema("\"price\":{\"type\":\"number\",\"index\":\"facet\",\"ranges\":{\"max\":10}}", "must be an array");
+        assertInvalidSchema("\"price\":{\"type\":\"number\",\"index\":\"facet\",\"ranges\":[10]}", "must be objects");
+        assertInvalidSchema("\"price\":{\"type\":\"number\",\"index\":\"facet\",\"ranges\":[{\"max\":\"ten\"}]}", "must be numbers");
+        assertInvalidSchema("\"age\":{\"type\":\"integer\",\"index\":\"facet\",\"ranges\":[{\"max\":1.5}]}", "must be integers");
+        assertInvalidSchema("\"price\":{\"type\":\"number\",\"index\":\"facet\",\"ranges\":[{\"min\":10,\"max\":5}]}", "must be lower than max");
+        assertInvalidSchema("\"price\":{\"type\":\"number\",\"index\":\"index\",\"ranges\":[{\"max\":10}]}", "only supported in numeric facet fields");
+        assertInvalidSchema("\"name\":{\"type\":\"string\",\"index\":\"facet\",\"ranges\":[{\"max\":10}]}", "only supported in numeric facet fields");
+    }
+
+    @Test
+    public void testRangeFacetWithoutRanges() throws ParseException {
+        SchemaImpl s = new SchemaImpl(JsonCodec.getInstance().parseSchema("{\"type\":\"object\",\"properties\":{\"price\":{\"type\":\"number\",\"index\":\"facet\"}}}"));
+        assertTrue(s.getRangeFacetFields().get("$.price").isEmpty());
+    }
+
+    private static void assertInvalidSchema(String properties, String expectedMessage) {
+        try {
+            new SchemaImpl(JsonCodec.getInstance().parseSchema("{\"type\":\"object\",\"properties\":{" + properties + "}}"));
+            fail("Invalid schema accepted: " + properties);
+        } catch (IllegalArgumentException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains(expectedMessage));
+        } catch (ParseException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
     static class Class2 {
 
         private String s1;
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2015 Ignacio del Valle Alles idelvall@brutusin.org.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.brutusin.fleadb.impl;
+
+import java.io.File;
+import java.io.IOException;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.brutusin.fleadb.query.Query;
+import org.brutusin.json.ParseException;
+import org.brutusin.json.spi.JsonCodec;
+import org.brutusin.json.spi.JsonNode;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Ignacio del Valle Alles idelvall@brutusin.org
+ */
+public class UpsertTest {
+
+    private static final String SCHEMA = "{\"type\":\"object\",\"properties\":{\"id\":{\"type\":\"string\",\"index\":\"id\"},\"value\":{\"type\":\"integer\",\"index\":\"index\"}}}";
+
+    private GenericFleaDB db;
+
+    @Before
+    public void setUp() throws IOException, ParseException {
+        db = new GenericFleaDB(JsonCodec.getInstance().parseSchema(SCHEMA));
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    @Test
+    public void testUpsert() throws ParseException {
+        db.upsert(JsonCodec.getInstance().parse("{\"id\":\"a\",\"value\":1}"));
+        db.upsert(JsonCodec.getInstance().parse("{\"id\":\"b\",\"value\":1}"));
+        db.commit();
+        db.upsert(JsonCodec.getInstance().parse("{\"id\":\"a\",\"value\":2}"));
+        db.commit();
+        assertEquals(2, db.query(Query.MATCH_ALL_DOCS_QUERY).getTotalHits());
+        assertEquals(2L, (long) db.getById("a").get("value").asLong());
+        assertEquals(1L, (long) db.getById("b").get("value").asLong());
+        assertNull(db.getById("c"));
+    }
+
+    @Test
+    public void testBloomFilteredKey() throws IOException, ParseException {
+        File indexFolder = new File(System.getProperty("java.io.tmpdir"), "flea-db-bloom");
+        FleaDBBuilder.delete(indexFolder);
+        try {
+            GenericFleaDB fsDb = new GenericFleaDB(indexFolder, JsonCodec.getInstance().parseSchema(SCHEMA));
+            try {
+                fsDb.setBloomFilteredKey(true);
+                // One segment per commit
+                for (int i = 0; i < 5; i++) {
+                    fsDb.upsert(JsonCodec.getInstance().parse("{\"id\":\"k" + i + "\",\"value\":" + i + "}"));
+                    fsDb.commit();
+                }
+                fsDb.upsert(JsonCodec.getInstance().parse("{\"id\":\"k2\",\"value\":20}"));
+                fsDb.commit();
+                assertEquals(5, fsDb.query(Query.MATCH_ALL_DOCS_QUERY).getTotalHits());
+                assertEquals(20L, (long) fsDb.getById("k2").get("value").asLong());
+                assertEquals(4L, (long) fsDb.getById("k4").get("value").asLong());
+                assertNull(fsDb.getById("k5"));
+            } finally {
+                fsDb.close();
+            }
+            Directory dir = FSDirectory.open(new File(indexFolder, GenericFleaDB.RECORD_INDEX_SUBFOLDER_NAME));
+            try {
+                DirectoryReader reader = DirectoryReader.open(dir);
+                try {
+                    assertTrue(reader.leaves().size() > 1);
+                } finally {
+                    reader.close();
+                }
+            } finally {
+                dir.close();
+            }
+            // Reopening resolves the bloom postings format via SPI
+            fsDb = new GenericFleaDB(indexFolder);
+            try {
+                fsDb.setBloomFilteredKey(true);
+                assertEquals(0L, (long) fsDb.getById("k0").get("value").asLong());
+                assertNull(fsDb.getById("k9"));
+                fsDb.upsert(JsonCodec.getInstance().parse("{\"id\":\"k0\",\"value\":10}"));
+                fsDb.upsert(JsonCodec.getInstance().parse("{\"id\":\"k9\",\"value\":9}"));
+                fsDb.commit();
+                assertEquals(6, fsDb.query(Query.MATCH_ALL_DOCS_QUERY).getTotalHits());
+                assertEquals(10L, (long) fsDb.getById("k0").get("value").asLong());
+                assertEquals(9L, (long) fsDb.getById("k9").get("value").asLong());
+            } finally {
+                fsDb.close();
+            }
+        } finally {
+            FleaDBBuilder.delete(indexFolder);
+        }
+    }
+
+    @Test
+    public void testNumericKeys() throws ParseException {
+        GenericFleaDB intDb = new GenericFleaDB(JsonCodec.getInstance().parseSchema("{\"type\":\"object\",\"properties\":{\"id\":{\"type\":\"integer\",\"index\":\"id\"},\"value\":{\"type\":\"integer\",\"index\":\"index\"}}}"));
+        try {
+            intDb.upsert(JsonCodec.getInstance().parse("{\"id\":1,\"value\":1}"));
+            intDb.upsert(JsonCodec.getInstance().parse("{\"id\":2,\"value\":2}"));
+            intDb.commit();
+            assertEquals(1L, (long) intDb.getById(1).get("value").asLong());
+            assertEquals(2L, (long) intDb.getById(2L).get("value").asLong());
+            assertEquals(2L, (long) intDb.getById(2.0).get("value").asLong());
+            assertNull(intDb.getById(1.5));
+            assertNull(intDb.getById(1.9));
+        } finally {
+            intDb.close();
+        }
+        assertEquals("1.5", JsonTransformer.toKeyString(1.5));
+        assertEquals("1.9", JsonTransformer.toKeyString(1.9f));
+        assertEquals("100", JsonTransformer.toKeyString(100.0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUpsertWithoutKey() throws ParseException {
+        db.upsert(JsonCodec.getInstance().parse("{\"value\":1}"));
+    }
+}